@@ -60,7 +60,7 @@ public class Aggregate extends AbstractDbIterator {
 
         if (td.getType(this.aggFieldIndex) == Type.INT_TYPE) {
             return new IntAggregator(this.groupByFieldIndex, groupByFieldType, this.aggFieldIndex, this.aggOp);
-        } else if (td.getType(this.aggFieldIndex) == Type.STRING_TYPE) {
+        } else if (td.getType(this.aggFieldIndex) == Type.STRING_TYPE || td.getType(this.aggFieldIndex) == Type.VARSTRING_TYPE) {
             return new StringAggregator(this.groupByFieldIndex, groupByFieldType, this.aggFieldIndex, this.aggOp);
         } else {
             throw new DbException("This type of iterator is not supported");
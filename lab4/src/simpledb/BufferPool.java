@@ -3,6 +3,15 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 /**
  * BufferPool manages the reading and writing of pages into memory from
  * disk. Access methods call into it to retrieve pages, and it fetches
@@ -21,19 +30,86 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
-    private Map<PageId, Page> pages = null;
+    private Map<PageId, Frame> frames = null;
     private Map<TransactionId, Set<PageId>> transactionMap = null;
+    private ReplacementPolicy policy = null;
+    private AtomicInteger numFrames = null;
     private int maxPages = 0;
 
+    /** Background I/O worker shared by all buffer pools, used for read-ahead. */
+    private static final ExecutorService IO_WORKER = Executors.newSingleThreadExecutor(r -> {
+    	Thread thread = new Thread(r, "simpledb-read-ahead");
+    	thread.setDaemon(true);
+    	return thread;
+    });
+
+    /** Background page writer thread shared by all buffer pools. */
+    private static final ScheduledExecutorService PAGE_WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+    	Thread thread = new Thread(r, "simpledb-page-writer");
+    	thread.setDaemon(true);
+    	return thread;
+    });
+
+    /** The most pages written to disk with a single write. */
+    private static final int MAX_WRITE_RUN = 64;
+
+    private ScheduledFuture<?> writer = null;
+    /** Why the background writer stopped itself, until it is reported */
+    private volatile IOException writerFailure = null;
+    private volatile boolean steal = false;
+    private volatile boolean force = true;
+    private Map<TransactionId, Set<PageId>> stolenPages = new ConcurrentHashMap<>();
+    /** The pins each transaction holds, released when it completes */
+    private Map<TransactionId, Map<PageId, Integer>> pinnedPages = new ConcurrentHashMap<>();
+
+    /**
+     * A slot in the buffer pool holding one page. The latch serializes loading,
+     * flushing and evicting this page only, so that work on different pages
+     * never contends. A pin count of -1 marks a frame that is being evicted.
+     */
+    private static class Frame {
+    	private final ReentrantLock latch = new ReentrantLock();
+    	private final AtomicInteger pins = new AtomicInteger(0);
+    	private volatile Page page = null;
+
+    	boolean pin() {
+    		while (true) {
+    			int count = this.pins.get();
+    			if (count < 0)
+    				return false;
+    			if (this.pins.compareAndSet(count, count + 1))
+    				return true;
+    		}
+    	}
+
+    	/** @return true if a pin was released */
+    	boolean unpin() {
+    		return this.pins.getAndUpdate(count -> count > 0 ? count - 1 : count) > 0;
+    	}
+    }
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replaced with the
+     * scan-resistant 2Q policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
-    	this.pages = new ConcurrentHashMap<PageId, Page>();
+        this(numPages, new TwoQueuePolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * in the order chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick eviction victims.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+    	this.frames = new ConcurrentHashMap<PageId, Frame>();
     	this.transactionMap = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    	this.policy = policy;
+    	this.numFrames = new AtomicInteger(0);
     	this.maxPages = numPages;
     }
 
@@ -55,32 +131,279 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-    	
+    	return this.fetchPage(tid, pid, perm, false, false);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage}, telling the
+     * replacement policy whether the access is part of a sequential scan so
+     * that scans don't push the working set out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param scan true if the page is read by a sequential scan
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean scan)
+        throws TransactionAbortedException, DbException {
+    	return this.fetchPage(tid, pid, perm, false, scan);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage}, and pin it so that it
+     * stays resident until {@link #unpinPage} is called. Iterators pin the
+     * page they are reading so that it is not evicted underneath them.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+    	return this.fetchPage(tid, pid, perm, true, false);
+    }
+
+    /**
+     * Retrieve and pin the specified page like {@link #pinPage}, with the
+     * scan hint of {@link #getPage(TransactionId, PageId, Permissions, boolean)}.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, boolean scan)
+        throws TransactionAbortedException, DbException {
+    	return this.fetchPage(tid, pid, perm, true, scan);
+    }
+
+    /**
+     * Lock a whole table on behalf of a transaction, which then takes no page
+     * locks for the pages it reads (READ_ONLY) or reads and writes
+     * (READ_WRITE). Other transactions can still read pages of a table locked
+     * READ_ONLY, but not write them. May block if the lock cannot be acquired.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm the requested permissions on every page of the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+    	try {
+    		Database.getLockManager().lockTable(tableId, tid, perm.adjustForLock());
+    	} catch (DeadlockException e) {
+    		throw new TransactionAbortedException();
+    	}
+    }
+
+    /**
+     * Release one pin taken by {@link #pinPage}. Pins a transaction still
+     * holds when it completes are released then, so a later call for them
+     * does nothing.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+    	if (tid != null) {
+    		Map<PageId, Integer> held = this.pinnedPages.get(tid);
+    		boolean[] found = new boolean[1];
+    		if (held != null)
+    			held.computeIfPresent(pid, (k, count) -> {
+    				found[0] = true;
+    				return count > 1 ? count - 1 : null;
+    			});
+    		if (!found[0])
+    			return;
+    	}
+    	this.releasePin(pid);
+    }
+
+    private void releasePin(PageId pid) {
+    	Frame frame = this.frames.get(pid);
+    	if (frame != null && frame.unpin())
+    		this.policy.unpin(pid);
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, boolean pin, boolean scan)
+        throws TransactionAbortedException, DbException {
     	try {
     		Database.getLockManager().lock(pid, tid, perm.adjustForLock());
     	} catch (DeadlockException e) {
     		throw new TransactionAbortedException();
     	}
     	
-    	if (tid != null ) {
-	    	Set<PageId> transactionPages = transactionMap.getOrDefault(tid, new HashSet<>());
-	    	transactionPages.add(pid);
-	    	transactionMap.put(tid, transactionPages);
-    	}
+    	if (tid != null)
+    		this.transactionMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
     	
-    	if (this.pages.containsKey(pid)) {
-    		Page page = this.pages.get(pid);
-    		page.updateAccessTimestamp();
+    	while (true) {
+    		Frame frame = this.frames.get(pid);
+    		if (frame == null) {
+    			frame = this.loadFrame(pid, scan);
+    			if (frame == null)
+    				continue;
+    		} else if (frame.page == null) {
+    			// another thread is reading this page; wait for it to finish
+    			frame.latch.lock();
+    			frame.latch.unlock();
+    		}
+    		
+    		Page page = frame.page;
+    		if (page == null || (pin && !frame.pin()))
+    			continue;
+    		if (this.frames.get(pid) != frame) {
+    			// evicted between the lookup and the pin
+    			if (pin)
+    				frame.unpin();
+    			continue;
+    		}
+    		if (pin) {
+    			if (tid != null)
+    				this.pinnedPages.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+    			this.policy.pin(pid);
+    		}
+    		this.policy.access(pid, scan);
     		return page;
     	}
+    }
+
+    /**
+     * Read a page that is not resident into a new frame. Only one thread does
+     * the disk read; concurrent requests for the same page wait on the frame.
+     *
+     * @return the loaded frame, or null if another thread installed one first
+     */
+    private Frame loadFrame(PageId pid, boolean scan) throws DbException {
+    	this.reserveFrame();
     	
-    	if (this.pages.size() >= this.maxPages)
-    		this.evictPage();
-    	
-    	Page page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-    	this.pages.put(pid,  page);
+    	Frame frame = new Frame();
+    	frame.latch.lock();
+    	try {
+    		if (this.frames.putIfAbsent(pid, frame) != null) {
+    			this.numFrames.decrementAndGet();
+    			return null;
+    		}
+    		try {
+    			frame.page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+    		} catch (UncheckedIOException e) {
+    			throw new DbException("Could not read page " + pid.pageno() + " of table " + pid.getTableId(),
+    					e.getCause());
+    		} finally {
+    			if (frame.page == null) {
+    				this.frames.remove(pid, frame);
+    				this.numFrames.decrementAndGet();
+    			}
+    		}
+    		if (frame.page == null)
+    			throw new DbException("Could not read page " + pid.pageno() + " of table " + pid.getTableId());
+    		this.policy.admit(pid, scan);
+    		return frame;
+    	} finally {
+    		frame.latch.unlock();
+    	}
+    }
+
+    /**
+     * Asynchronously read up to count consecutive pages, starting at first,
+     * into the buffer pool so that a sequential scan finds them resident.
+     * No locks are taken: the scan still locks each page when it gets it.
+     * Read-ahead stops at the first page already resident or being read, and
+     * reads at most a quarter of the pool at a time, so it does not push out
+     * the pages a scan is working on.
+     *
+     * @param first the ID of the first page to read
+     * @param count the number of pages to read
+     * @return a future that completes when the pages are in the pool
+     */
+    public Future<?> readAhead(PageId first, int count) {
+    	int limit = Math.min(count, this.maxPages / 4);
+    	return IO_WORKER.submit(() -> this.prefetch(first, limit));
+    }
+
+    private void prefetch(PageId first, int count) {
+    	// claim a latched, empty frame for every page first, so getPage waits
+    	// for the read and a concurrent load can't be overwritten by stale data
+    	List<Frame> claimed = new ArrayList<>();
+    	for (int i = 0; i < count; i++) {
+    		PageId pid = new HeapPageId(first.getTableId(), first.pageno() + i);
+    		if (this.frames.containsKey(pid) || !this.tryReserveFrame())
+    			break;
+    		Frame frame = new Frame();
+    		frame.latch.lock();
+    		if (this.frames.putIfAbsent(pid, frame) != null) {
+    			frame.latch.unlock();
+    			this.numFrames.decrementAndGet();
+    			break;
+    		}
+    		claimed.add(frame);
+    	}
+    	if (claimed.isEmpty())
+    		return;
     	
-    	return page;
+    	try {
+    		DbFile file = Database.getCatalog().getDbFile(first.getTableId());
+    		List<Page> pages;
+    		// one read for the whole run, unless a subclass intercepts readPage
+    		if (file.getClass() == HeapFile.class) {
+    			pages = ((HeapFile) file).readPages(first.pageno(), claimed.size());
+    		} else {
+    			pages = new ArrayList<>();
+    			for (int i = 0; i < claimed.size(); i++)
+    				pages.add(file.readPage(new HeapPageId(first.getTableId(), first.pageno() + i)));
+    		}
+    		for (int i = 0; i < pages.size() && pages.get(i) != null; i++) {
+    			claimed.get(i).page = pages.get(i);
+    			this.policy.admit(pages.get(i).getId(), true);
+    		}
+    	} catch (IOException | UncheckedIOException | NoSuchElementException e) {
+    		// read-ahead is only a hint; the scan reads the pages itself
+    	} finally {
+    		for (int i = 0; i < claimed.size(); i++) {
+    			Frame frame = claimed.get(i);
+    			if (frame.page == null) {
+    				this.frames.remove(new HeapPageId(first.getTableId(), first.pageno() + i), frame);
+    				this.numFrames.decrementAndGet();
+    			}
+    			frame.latch.unlock();
+    		}
+    	}
+    }
+
+    /**
+     * Claim room for one more frame, evicting at most one page.
+     *
+     * @return false if the pool is full and nothing could be evicted
+     */
+    private boolean tryReserveFrame() {
+    	boolean evicted = false;
+    	while (true) {
+    		int count = this.numFrames.get();
+    		if (count < this.maxPages) {
+    			if (this.numFrames.compareAndSet(count, count + 1))
+    				return true;
+    		} else if (evicted) {
+    			return false;
+    		} else {
+    			try {
+    				// read-ahead never steals: it must not cost log writes; nor
+    				// does it wait, as it holds the latches of the frames it claimed
+    				this.evictPage(false, false);
+    			} catch (DbException e) {
+    				return false;
+    			}
+    			evicted = true;
+    		}
+    	}
+    }
+
+    /**
+     * Claim room for one more frame, evicting pages until there is some.
+     */
+    private void reserveFrame() throws DbException {
+    	while (true) {
+    		int count = this.numFrames.get();
+    		if (count < this.maxPages) {
+    			if (this.numFrames.compareAndSet(count, count + 1))
+    				return;
+    		} else {
+    			this.evictPage(this.steal, true);
+    		}
+    	}
     }
 
     /**
@@ -129,21 +452,93 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
     	Set<PageId> tidPids = this.transactionMap.getOrDefault(tid, Collections.emptySet());
-    	for (PageId pid : tidPids) {
-    		if (commit) {
-    			this.flushPage(pid);
-    		} else {
-    			if (this.pages.get(pid) != null && tid.equals(this.pages.get(pid).isDirty())) {
-    				Page restoredPage = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-    				this.pages.put(pid,  restoredPage);
-    			}
-    		}
+    	// stolen pages are on disk already; only the log can undo them
+    	if (this.stolenPages.remove(tid) != null && !commit)
+    		Database.getLogFile().rollback(tid);
+    	if (commit) {
+    		if (this.force)
+    			this.flushPages(tidPids, page -> true, false);
+    		else
+    			this.logCommit(tid);
+    		for (PageId pid : tidPids)
+    			this.setBeforeImage(pid);
+    	} else {
+    		for (PageId pid : tidPids)
+    			this.restorePage(pid, tid);
     	}
     	
+    	// an aborted plan may never have been closed
+    	Map<PageId, Integer> pinned = this.pinnedPages.remove(tid);
+    	if (pinned != null)
+    		for (Map.Entry<PageId, Integer> entry : pinned.entrySet())
+    			for (int i = 0; i < entry.getValue(); i++)
+    				this.releasePin(entry.getKey());
+    	
     	Database.getLockManager().removeTransaction(tid);
     	this.transactionMap.remove(tid);
     }
 
+    /**
+     * Append the update records of the pages tid dirtied and a commit record
+     * to the log, and force it. In NO-FORCE mode this is what makes a commit
+     * durable.
+     */
+    private void logCommit(TransactionId tid) throws IOException {
+    	LogFile log = Database.getLogFile();
+    	synchronized (log) {
+    		this.flushPages(tid);
+    		log.logCommit(tid);
+    	}
+    }
+
+    /**
+     * Make the committed contents of a page the before-image that later
+     * transactions roll back to.
+     */
+    private void setBeforeImage(PageId pid) {
+    	Frame frame = this.frames.get(pid);
+    	if (frame == null)
+    		return;
+    	
+    	frame.latch.lock();
+    	try {
+    		Page page = frame.page;
+    		if (page != null)
+    			page.setBeforeImage();
+    	} finally {
+    		frame.latch.unlock();
+    	}
+    }
+
+    /**
+     * Replace a page dirtied by an aborting transaction with its before-image,
+     * the last committed version of the page. In NO-FORCE mode that version
+     * may not be on disk yet, so it is written back, and the restored page
+     * is clean either way.
+     */
+    private void restorePage(PageId pid, TransactionId tid) throws IOException {
+    	Frame frame = this.frames.get(pid);
+    	if (frame == null)
+    		return;
+    	
+    	frame.latch.lock();
+    	try {
+    		Page page = frame.page;
+    		if (page != null && tid.equals(page.isDirty())) {
+    			Page restored = page.getBeforeImage();
+    			DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+    			if (!this.force)
+    				file.writePage(restored);
+    			frame.page = restored;
+    			// the aborted inserts or deletes may have changed whether the page is full
+    			if (file instanceof HeapFile && restored instanceof HeapPage)
+    				((HeapFile) file).noteFreeSpace((HeapPage) restored);
+    		}
+    	} finally {
+    		frame.latch.unlock();
+    	}
+    }
+
     /**
      * Add a tuple to the specified table behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to(Lock 
@@ -168,6 +563,24 @@ public class BufferPool {
     		dirtyPage.markDirty(true, tid);
     }
 
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid. Behaves like calling {@link #insertTuple} for each tuple, but lets
+     * the file fill a page before moving to the next, so each page is locked
+     * and marked dirty once rather than once per tuple.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+    	DbFile file = Database.getCatalog().getDbFile(tableId);
+    	ArrayList<Page> dirtyPages = file.addTuples(tid, tuples);
+    	for (Page dirtyPage: dirtyPages)
+    		dirtyPage.markDirty(true, tid);
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -194,13 +607,24 @@ public class BufferPool {
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     * <p>
+     * Pages of running transactions are logged first, like stolen pages, so
+     * that an abort or recovery can still undo them. The free space maps of
+     * heap files are saved afterwards, so they are newer than the tables.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-    	for (PageId pid: this.pages.keySet())
-    		this.flushPage(pid);
-
+    	this.reportWriterFailure();
+    	synchronized (Database.getLogFile()) {
+    		this.flushPages(this.frames.keySet(), page -> true, true);
+    	}
+    	Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+    	while (tableIds.hasNext()) {
+    		DbFile file = Database.getCatalog().getDbFile(tableIds.next());
+    		if (file instanceof HeapFile)
+    			((HeapFile) file).saveFreeSpace();
+    	}
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -208,20 +632,46 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+    	Frame frame = this.frames.get(pid);
+    	if (frame == null)
+    		return;
+    	
+    	frame.latch.lock();
+    	try {
+    		if (this.frames.remove(pid, frame)) {
+    			this.numFrames.decrementAndGet();
+    			this.policy.remove(pid);
+    		}
+    	} finally {
+    		frame.latch.unlock();
+    	}
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-    	Page page = this.pages.get(pid);
+    	Frame frame = this.frames.get(pid);
+    	if (frame == null)
+    		return;
     	
+    	frame.latch.lock();
+    	try {
+    		this.flushFrame(pid, frame);
+    	} finally {
+    		frame.latch.unlock();
+    	}
+    }
+
+    /** Write a frame's page to disk if it is dirty. The caller holds the frame latch. */
+    private void flushFrame(PageId pid, Frame frame) throws IOException {
+    	Page page = frame.page;
     	if (page != null && page.isDirty() != null) {
     		DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
     		file.writePage(page);
@@ -230,41 +680,330 @@ public class BufferPool {
     }
 
     /** Write all pages of the specified transaction to disk.
+     * <p>
+     * The pages are logged and the log forced before they are written, so
+     * that redo ends with them rather than with older images of pages the
+     * transaction had stolen.
+     * <p>
+     * In NO-FORCE mode the pages are not written; an update record with the
+     * before- and after-image of each page is appended to the log instead, to
+     * be forced by the commit record that follows. The pages are written back
+     * later by eviction, the background writer or a checkpoint.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2|lab3
+    	Set<PageId> tidPids = this.transactionMap.getOrDefault(tid, Collections.emptySet());
+    	LogFile log = Database.getLogFile();
+    	synchronized (log) {
+    		if (this.force) {
+    			this.flushPages(tidPids, page -> tid.equals(page.isDirty()), true);
+    			return;
+    		}
+    		for (PageId pid : tidPids) {
+    			Frame frame = this.frames.get(pid);
+    			if (frame == null)
+    				continue;
+    			frame.latch.lock();
+    			try {
+    				Page page = frame.page;
+    				if (page != null && tid.equals(page.isDirty()))
+    					log.logWrite(tid, page.getBeforeImage(), page);
+    			} finally {
+    				frame.latch.unlock();
+    			}
+    		}
+    	}
     }
-    
-    private Page findLRUPage() {
-    	Page LRUPage = null;
+
+    /**
+     * Enable or disable FORCE mode. By default commit writes every page the
+     * transaction dirtied (FORCE). With NO-FORCE, {@link #transactionComplete}
+     * only appends the transaction's update records and a commit record to
+     * the log, and forces the log; committed pages stay dirty in the pool,
+     * and {@link LogFile#recover} redoes them after a crash.
+     *
+     * @param force false to leave committed pages to be written back lazily
+     */
+    public void setForce(boolean force) {
+    	this.force = force;
+    }
+
+    /**
+     * @return true if commits write the pages of the transaction (FORCE)
+     */
+    public boolean isForce() {
+    	return this.force;
+    }
+
+    /**
+     * @return true if tid has accessed pages and has not completed yet
+     */
+    private boolean isRunning(TransactionId tid) {
+    	return tid != null && this.transactionMap.containsKey(tid);
+    }
+
+    /**
+     * Write the dirty pages among pids that pass the filter, sorted by table
+     * and page number so that each run of adjacent pages of a table goes to
+     * disk as one write.
+     */
+    private void flushPages(Collection<PageId> pids, Predicate<Page> filter, boolean logUncommitted)
+    		throws IOException {
+    	List<PageId> sorted = new ArrayList<>(pids);
+    	sorted.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::pageno));
     	
-    	for (Page page: this.pages.values()) {
-    		if (page.isDirty() != null)
-    			continue;
-    		else if (LRUPage == null || page.getAccessTimestamp() < LRUPage.getAccessTimestamp())
-    			LRUPage = page;
+    	int start = 0;
+    	while (start < sorted.size()) {
+    		int tableId = sorted.get(start).getTableId();
+    		int end = start + 1;
+    		while (end < sorted.size() && end - start < MAX_WRITE_RUN
+    				&& sorted.get(end).getTableId() == tableId
+    				&& sorted.get(end).pageno() == sorted.get(end - 1).pageno() + 1)
+    			end++;
+    		this.flushRun(sorted.subList(start, end), filter, logUncommitted);
+    		start = end;
     	}
-    	
-    	return LRUPage;
+    }
+
+    /**
+     * Write a run of adjacent pages of one table. The frame latches are taken
+     * in page order, which is the only order several latches are ever held in.
+     *
+     * @param logUncommitted true to log the pages of running transactions
+     *        before they are written; the caller holds the log
+     */
+    private void flushRun(List<PageId> run, Predicate<Page> filter, boolean logUncommitted)
+    		throws IOException {
+    	List<Frame> latched = new ArrayList<>();
+    	List<Page> dirty = new ArrayList<>();
+    	try {
+    		for (PageId pid : run) {
+    			Frame frame = this.frames.get(pid);
+    			if (frame == null)
+    				continue;
+    			frame.latch.lock();
+    			latched.add(frame);
+    			Page page = frame.page;
+    			if (page != null && page.isDirty() != null && filter.test(page))
+    				dirty.add(page);
+    		}
+    		if (dirty.isEmpty())
+    			return;
+    		
+    		if (logUncommitted)
+    			this.logUncommitted(dirty);
+    		DbFile file = Database.getCatalog().getDbFile(run.get(0).getTableId());
+    		// one write for the whole run, unless a subclass intercepts writePage
+    		if (file.getClass() == HeapFile.class) {
+    			((HeapFile) file).writePages(dirty);
+    		} else {
+    			for (Page page : dirty)
+    				file.writePage(page);
+    		}
+    		for (Page page : dirty)
+    			page.markDirty(false, null);
+    	} finally {
+    		for (Frame frame : latched)
+    			frame.latch.unlock();
+    	}
+    }
+
+    /**
+     * Write-ahead log the pages of running transactions among pages, which are
+     * about to be written, and remember them as stolen so that an abort rolls
+     * them back from the log.
+     */
+    private void logUncommitted(List<Page> pages) throws IOException {
+    	LogFile log = Database.getLogFile();
+    	boolean logged = false;
+    	for (Page page : pages) {
+    		TransactionId dirtier = page.isDirty();
+    		if (this.isRunning(dirtier)) {
+    			log.logWrite(dirtier, page.getBeforeImage(), page);
+    			this.stolenPages.computeIfAbsent(dirtier, k -> ConcurrentHashMap.newKeySet()).add(page.getId());
+    			logged = true;
+    		}
+    	}
+    	if (logged)
+    		log.force();
+    }
+
+    /**
+     * Start a background writer that, every intervalMillis milliseconds,
+     * writes out the dirty pages of transactions that have completed, so that
+     * commits, checkpoints and evictions find less left to write. Pages of
+     * running transactions are never written (NO STEAL).
+     * <p>
+     * A write that fails stops the writer; the failure is thrown by the next
+     * {@link #stopBackgroundWriter} or {@link #flushAllPages}.
+     *
+     * @param intervalMillis the time between two passes of the writer
+     */
+    public synchronized void startBackgroundWriter(long intervalMillis) {
+    	this.cancelBackgroundWriter();
+    	this.writer = PAGE_WRITER.scheduleWithFixedDelay(() -> {
+    		try {
+    			this.flushPages(this.frames.keySet(), page -> !this.isRunning(page.isDirty()), false);
+    		} catch (IOException e) {
+    			this.writerFailure = e;
+    			// an exception ends a periodic task
+    			throw new UncheckedIOException(e);
+    		}
+    	}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background writer, if it is running.
+     *
+     * @throws IOException if the writer had stopped itself because a write
+     *   failed
+     */
+    public synchronized void stopBackgroundWriter() throws IOException {
+    	this.cancelBackgroundWriter();
+    	this.reportWriterFailure();
+    }
+
+    /**
+     * Stop the background writer without reporting a failed write, for a
+     * pool that is being thrown away.
+     */
+    synchronized void cancelBackgroundWriter() {
+    	if (this.writer != null) {
+    		this.writer.cancel(false);
+    		this.writer = null;
+    	}
+    }
+
+    /** Throw the failure that stopped the background writer, once. */
+    private void reportWriterFailure() throws IOException {
+    	IOException e = this.writerFailure;
+    	if (e != null) {
+    		this.writerFailure = null;
+    		throw e;
+    	}
+    }
+
+    /**
+     * Enable or disable STEAL mode. By default dirty pages stay in the pool
+     * until their transaction completes (NO STEAL), so a transaction can't
+     * dirty more pages than the pool holds. In STEAL mode a dirty page may be
+     * evicted when no clean page can be: its before- and after-images are
+     * first logged and the log forced (write-ahead logging), and an abort
+     * rolls the page back from the log.
+     *
+     * @param steal true to allow dirty pages to be evicted
+     */
+    public void setSteal(boolean steal) {
+    	this.steal = steal;
+    }
+
+    /**
+     * Clean, unpinned pages may always leave the pool, and so may the dirty
+     * pages of completed transactions (NO-FORCE), which are written back on
+     * the way out. Dirty pages of running transactions may only be evicted in
+     * STEAL mode.
+     */
+    private boolean isEvictable(PageId pid, boolean allowDirty) {
+    	Frame frame = this.frames.get(pid);
+    	if (frame == null || frame.pins.get() != 0)
+    		return false;
+    	Page page = frame.page;
+    	return page != null && (allowDirty || page.isDirty() == null || !this.isRunning(page.isDirty()));
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * <p>
+     * A victim that can't be evicted right now, usually because another
+     * thread holds its latch to load or write it, is passed over for the
+     * next candidate. Only once every candidate has been passed over does
+     * this wait for one of them, rather than ask the policy again.
+     *
+     * @param steal true to evict a dirty page if no clean page can be evicted
+     * @param wait false to give up instead of waiting for a latch
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(boolean steal, boolean wait) throws DbException {
         // some code goes here
         // not necessary for lab1
-    	Page LRUPage = this.findLRUPage();
-    	if (LRUPage == null)
-    		throw new DbException("No pages to evict!");
-    	
+    	Map<PageId, Frame> passed = new HashMap<>();
+    	while (true) {
+    		PageId victim = this.policy.evict(pid -> !passed.containsKey(pid) && this.isEvictable(pid, false));
+    		if (victim == null && steal)
+    			victim = this.policy.evict(pid -> !passed.containsKey(pid) && this.isEvictable(pid, true));
+    		if (victim == null) {
+    			if (passed.isEmpty() || !wait)
+    				throw new DbException("No pages to evict!");
+    			// no latches are held here, so waiting can't deadlock
+    			Frame busy = passed.values().iterator().next();
+    			busy.latch.lock();
+    			busy.latch.unlock();
+    			passed.clear();
+    			continue;
+    		}
+    		
+    		Frame frame = this.frames.get(victim);
+    		if (frame == null)
+    			continue;
+    		Page page = frame.page;
+    		boolean evicted;
+    		if (steal && page != null && page.isDirty() != null && this.isRunning(page.isDirty())) {
+    			// the log is always entered before a frame latch, as rollback does
+    			synchronized (Database.getLogFile()) {
+    				evicted = this.evictFrame(victim, frame, true);
+    			}
+    		} else {
+    			evicted = this.evictFrame(victim, frame, false);
+    		}
+    		if (evicted)
+    			return;
+    		passed.put(victim, frame);
+    	}
+    }
+
+    /**
+     * Remove a victim chosen by the replacement policy from the pool, unless
+     * it has been latched, pinned or dirtied in the meantime.
+     *
+     * @param steal true if the page may be dirty; the caller holds the log
+     * @return true if the page was evicted
+     */
+    private boolean evictFrame(PageId victim, Frame frame, boolean steal) throws DbException {
+    	if (!frame.latch.tryLock()) {
+    		// being loaded or flushed right now; leave it be
+    		this.policy.admit(victim);
+    		return false;
+    	}
     	try {
-    		this.flushPage(LRUPage.getId());
-    		this.pages.remove(LRUPage.getId());
+    		// re-check under the latch: the page may have been pinned or dirtied
+    		if (!this.isEvictable(victim, steal) || !frame.pins.compareAndSet(0, -1)) {
+    			this.policy.admit(victim);
+    			return false;
+    		}
+    		Page page = frame.page;
+    		TransactionId dirtier = page.isDirty();
+    		if (dirtier != null && this.isRunning(dirtier)) {
+    			if (!steal) {
+    				// dirtied since the re-check; only a steal holds the log
+    				frame.pins.set(0);
+    				this.policy.admit(victim);
+    				return false;
+    			}
+    			LogFile log = Database.getLogFile();
+    			log.logWrite(dirtier, page.getBeforeImage(), page);
+    			log.force();
+    			this.stolenPages.computeIfAbsent(dirtier, k -> ConcurrentHashMap.newKeySet()).add(victim);
+    		}
+    		this.flushFrame(victim, frame);
+    		this.frames.remove(victim, frame);
+    		this.numFrames.decrementAndGet();
+    		return true;
     	} catch (IOException e) {
-    		throw new DbException("Could not remove page");
+    		throw new DbException("Could not remove page", e);
+    	} finally {
+    		frame.latch.unlock();
     	}
     }
 
@@ -0,0 +1,578 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader writes a HeapFile straight from comma delimited text, or from a
+ * list of integer tuples, in the page format described by HeapPage.
+ * <p>
+ * The input is cut into chunks that are parsed in parallel. A parsed chunk is
+ * given its place in the file once the chunks before it have been counted,
+ * and is then laid out into pages and written with one positional write, so
+ * the output matches what a sequential encoder would produce. Tables with
+ * variable-length fields use HeapPage's slotted layout instead; each chunk
+ * packs its records into whole pages of its own, so only the last page of
+ * each chunk may have room left over. Statistics for
+ * a {@link TableStats} are gathered from each chunk as it is parsed, so the
+ * new table does not have to be scanned again to plan queries over it.
+ *
+ * @see HeapFileEncoder
+ */
+public class BulkLoader {
+	/** Approximate number of input bytes parsed by one task */
+	static final int CHUNK_BYTES = 4 << 20;
+
+	/** Number of tuples encoded by one task when loading from a list */
+	static final int CHUNK_TUPLES = 1 << 16;
+
+	/**
+	 * Buckets in the int histograms kept for each chunk. They are finer than
+	 * the final histograms, which lose less when chunks are merged.
+	 */
+	static final int CHUNK_HIST_BINS = TableStats.NUM_HIST_BINS * 4;
+
+	private final Type[] types;
+	private final int[] fieldOffsets;
+	private final int pageBytes;
+	private final int recordBytes;
+	private final int recordsPerPage;
+	private final int headerBytes;
+	private final boolean slotted;
+	private final int slotsPerPage;
+	private final int chunkBytes;
+	private final int numThreads;
+
+	private long numTuples;
+	private long numPages;
+	private int[] minPerField;
+	private int[] maxPerField;
+	private List<IntHistogram[]> chunkHistograms;
+	private IntHistogram[] intHistograms;
+	private StringHistogram[] stringHistograms;
+
+	/**
+	 * Create a loader for tables with the given field types.
+	 *
+	 * @param types the type of each field of the table
+	 * @param pageBytes the number of bytes per page in the output file
+	 */
+	public BulkLoader(Type[] types, int pageBytes) {
+		this(types, pageBytes, CHUNK_BYTES, Runtime.getRuntime().availableProcessors());
+	}
+
+	BulkLoader(Type[] types, int pageBytes, int chunkBytes, int numThreads) {
+		this.types = types.clone();
+		this.fieldOffsets = new int[types.length];
+		int recordBytes = 0;
+		int minRecordBytes = 0;
+		for (int i = 0; i < types.length; i++) {
+			this.fieldOffsets[i] = recordBytes;
+			recordBytes += types[i].getLen();
+			minRecordBytes += types[i].getMinLen();
+		}
+		this.pageBytes = pageBytes;
+		this.recordBytes = recordBytes;
+		this.recordsPerPage = (pageBytes * 8) / (recordBytes * 8 + 1);
+		this.headerBytes = (this.recordsPerPage + 7) / 8;
+		this.slotted = minRecordBytes != recordBytes;
+		this.slotsPerPage = (pageBytes - HeapPage.SLOTTED_HEADER_BYTES) / (HeapPage.SLOT_BYTES + minRecordBytes);
+		this.chunkBytes = chunkBytes;
+		this.numThreads = Math.max(numThreads, 1);
+	}
+
+	/**
+	 * Convert a comma delimited text file into a HeapFile. Each non-empty
+	 * line of the input is one tuple, with one field per type; blank lines
+	 * and carriage returns are ignored. Strings longer than
+	 * {@link Type#STRING_LEN} bytes are truncated.
+	 *
+	 * @param inFile the text file to read
+	 * @param outFile the HeapFile to write; any existing contents are replaced
+	 * @throws IOException if a file can't be read or written, or a malformed
+	 *   input line is encountered
+	 */
+	public void load(File inFile, File outFile) throws IOException {
+		FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+		try {
+			long size = in.size();
+			List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+			for (long start = 0; start < size; start += this.chunkBytes) {
+				long from = start;
+				long to = Math.min(start + this.chunkBytes, size);
+				tasks.add(() -> this.parse(in, from, to));
+			}
+			this.run(tasks, outFile);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Convert a list of tuples with only integer fields into a HeapFile.
+	 *
+	 * @param tuples the tuples, each a list with one integer per field
+	 * @param outFile the HeapFile to write; any existing contents are replaced
+	 * @throws IOException if the output file can't be written
+	 */
+	public void load(List<? extends List<Integer>> tuples, File outFile) throws IOException {
+		List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+		for (int start = 0; start < tuples.size(); start += CHUNK_TUPLES) {
+			List<? extends List<Integer>> part = tuples.subList(start, Math.min(start + CHUNK_TUPLES, tuples.size()));
+			tasks.add(() -> this.encode(part));
+		}
+		this.run(tasks, outFile);
+	}
+
+	/**
+	 * @return the number of tuples written by the last load
+	 */
+	public int numTuples() {
+		return (int) this.numTuples;
+	}
+
+	/**
+	 * @return the number of pages written by the last load
+	 */
+	public int numPages() {
+		return (int) this.numPages;
+	}
+
+	/**
+	 * @return statistics for the table written by the last load, once it has
+	 *   been added to the catalog as tableid
+	 */
+	public TableStats getTableStats(int tableid, int ioCostPerPage) {
+		return new TableStats(tableid, ioCostPerPage, new TupleDesc(this.types), this.numTuples(),
+				this.minPerField.clone(), this.maxPerField.clone(),
+				this.intHistograms.clone(), this.stringHistograms.clone());
+	}
+
+	/**
+	 * Save the statistics of the last load next to outFile, where
+	 * {@link TableStats#load} finds them once the table is in the catalog.
+	 */
+	public void saveTableStats(File outFile) throws IOException {
+		this.getTableStats(-1, 0).save(TableStats.getStatsFile(outFile));
+	}
+
+	/**
+	 * Run the chunk tasks, keeping a bounded number of chunks in memory, and
+	 * write each chunk out as soon as every chunk before it has been parsed.
+	 */
+	private void run(List<Callable<Chunk>> tasks, File outFile) throws IOException {
+		this.numTuples = 0;
+		this.numPages = 0;
+		this.minPerField = new int[this.types.length];
+		this.maxPerField = new int[this.types.length];
+		Arrays.fill(this.minPerField, Integer.MAX_VALUE);
+		Arrays.fill(this.maxPerField, Integer.MIN_VALUE);
+		this.chunkHistograms = new ArrayList<IntHistogram[]>();
+		this.stringHistograms = new StringHistogram[this.types.length];
+		for (int i = 0; i < this.types.length; i++) {
+			if (this.types[i] != Type.INT_TYPE)
+				this.stringHistograms[i] = new StringHistogram(TableStats.NUM_HIST_BINS);
+		}
+
+		int window = this.numThreads * 2;
+		ExecutorService workers = Executors.newFixedThreadPool(this.numThreads);
+		RandomAccessFile raf = new RandomAccessFile(outFile, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel out = raf.getChannel();
+			ArrayDeque<Future<Chunk>> parsing = new ArrayDeque<Future<Chunk>>();
+			ArrayDeque<Future<?>> writing = new ArrayDeque<Future<?>>();
+			Iterator<Callable<Chunk>> it = tasks.iterator();
+			while (it.hasNext() || !parsing.isEmpty()) {
+				while (it.hasNext() && parsing.size() < window)
+					parsing.add(workers.submit(it.next()));
+
+				Chunk chunk = await(parsing.poll());
+				this.place(chunk, raf);
+				writing.add(workers.submit(() -> { this.write(chunk, out); return null; }));
+				while (writing.size() > window)
+					await(writing.poll());
+			}
+			while (!writing.isEmpty())
+				await(writing.poll());
+
+			// every page was written with a full header; the last one may not be
+			if (!this.slotted && this.numTuples % this.recordsPerPage != 0) {
+				byte[] header = this.header((int) (this.numTuples % this.recordsPerPage));
+				writeFully(out, ByteBuffer.wrap(header), (this.numPages - 1) * this.pageBytes);
+			}
+			// an empty table still has one empty page
+			if (this.numPages == 0) {
+				this.numPages = 1;
+				raf.setLength(this.pageBytes);
+			}
+		} finally {
+			workers.shutdownNow();
+			raf.close();
+		}
+
+		this.intHistograms = new IntHistogram[this.types.length];
+		for (int i = 0; i < this.types.length; i++) {
+			if (this.types[i] != Type.INT_TYPE || this.numTuples == 0)
+				continue;
+			this.intHistograms[i] = new IntHistogram(TableStats.NUM_HIST_BINS, this.minPerField[i], this.maxPerField[i]);
+			for (IntHistogram[] chunk : this.chunkHistograms) {
+				if (chunk[i] != null)
+					this.intHistograms[i].addHistogram(chunk[i]);
+			}
+		}
+		this.chunkHistograms = null;
+	}
+
+	/**
+	 * Give a parsed chunk the next records in the file, or the next pages for
+	 * a slotted table, grow the file to hold them, and fold the chunk's
+	 * statistics into the table's.
+	 */
+	private void place(Chunk chunk, RandomAccessFile raf) throws IOException {
+		chunk.first = this.slotted ? this.numPages : this.numTuples;
+		this.numTuples += chunk.count;
+		if (this.numTuples > Integer.MAX_VALUE)
+			throw new IOException("too many tuples for one table");
+
+		long pages = this.slotted ? this.numPages + chunk.numPages
+				: (this.numTuples + this.recordsPerPage - 1) / this.recordsPerPage;
+		if (pages > this.numPages) {
+			this.numPages = pages;
+			raf.setLength(pages * this.pageBytes);
+		}
+
+		for (int i = 0; i < this.types.length; i++) {
+			this.minPerField[i] = Math.min(this.minPerField[i], chunk.minPerField[i]);
+			this.maxPerField[i] = Math.max(this.maxPerField[i], chunk.maxPerField[i]);
+			if (chunk.stringHistograms[i] != null)
+				this.stringHistograms[i].addHistogram(chunk.stringHistograms[i]);
+		}
+		this.chunkHistograms.add(chunk.intHistograms);
+	}
+
+	/**
+	 * Lay a placed chunk's records out into pages and write them with one
+	 * positional write. The write starts at the chunk's first record, or at
+	 * the header of its first page if the chunk starts that page, so it never
+	 * overlaps the writes of neighbouring chunks.
+	 */
+	private void write(Chunk chunk, FileChannel out) throws IOException {
+		if (chunk.count == 0)
+			return;
+		if (this.slotted) {
+			writeFully(out, ByteBuffer.wrap(chunk.pages, 0, chunk.numPages * this.pageBytes), chunk.first * this.pageBytes);
+			return;
+		}
+		long first = chunk.first;
+		long last = first + chunk.count - 1;
+		long start = first % this.recordsPerPage == 0 ? this.pageOffset(first) : this.recordOffset(first);
+		long end = this.recordOffset(last) + this.recordBytes;
+
+		byte[] image = new byte[(int) (end - start)];
+		byte[] fullHeader = this.header(this.recordsPerPage);
+		for (long r = first; r <= last; ) {
+			int slot = (int) (r % this.recordsPerPage);
+			int n = (int) Math.min(this.recordsPerPage - slot, last - r + 1);
+			if (slot == 0)
+				System.arraycopy(fullHeader, 0, image, (int) (this.pageOffset(r) - start), this.headerBytes);
+			System.arraycopy(chunk.records, (int) (r - first) * this.recordBytes,
+					image, (int) (this.recordOffset(r) - start), n * this.recordBytes);
+			r += n;
+		}
+		writeFully(out, ByteBuffer.wrap(image), start);
+	}
+
+	/**
+	 * Parse the lines of the input that start in [start, end). The line that
+	 * straddles end is finished by reading past it, and the line that
+	 * straddles start is left to the previous chunk.
+	 */
+	private Chunk parse(FileChannel in, long start, long end) throws IOException {
+		long from = Math.max(start - 1, 0);
+		byte[] text = new byte[(int) (end - from)];
+		readFully(in, ByteBuffer.wrap(text), from);
+
+		int len = text.length;
+		long size = in.size();
+		for (long pos = end; pos < size && (len == 0 || text[len - 1] != '\n'); ) {
+			int n = (int) Math.min(4096, size - pos);
+			text = Arrays.copyOf(text, len + n);
+			readFully(in, ByteBuffer.wrap(text, len, n), pos);
+			pos += n;
+			int newline = len;
+			while (newline < len + n && text[newline] != '\n')
+				newline++;
+			len = Math.min(newline + 1, len + n);
+		}
+
+		int i = 0;
+		if (start > 0) {
+			while (i < len && text[i] != '\n')
+				i++;
+			i++;
+		}
+
+		Chunk chunk = new Chunk(len);
+		while (i < len) {
+			int eol = i;
+			while (eol < len && text[eol] != '\n')
+				eol++;
+			int lineEnd = eol;
+			while (lineEnd > i && text[lineEnd - 1] == '\r')
+				lineEnd--;
+			if (lineEnd > i)
+				chunk.addLine(text, i, lineEnd);
+			i = eol + 1;
+		}
+		chunk.summarize();
+		if (this.slotted)
+			chunk.paginate();
+		return chunk;
+	}
+
+	/**
+	 * Encode a list of integer tuples.
+	 */
+	private Chunk encode(List<? extends List<Integer>> tuples) throws IOException {
+		Chunk chunk = new Chunk(tuples.size() * this.recordBytes);
+		for (List<Integer> tuple : tuples)
+			chunk.addTuple(tuple);
+		chunk.summarize();
+		return chunk;
+	}
+
+	private long pageOffset(long record) {
+		return (record / this.recordsPerPage) * this.pageBytes;
+	}
+
+	private long recordOffset(long record) {
+		return this.pageOffset(record) + this.headerBytes + (record % this.recordsPerPage) * this.recordBytes;
+	}
+
+	/**
+	 * @return a page header with the first used slots marked as in use
+	 */
+	private byte[] header(int used) {
+		byte[] header = new byte[this.headerBytes];
+		for (int i = 0; i < used; i++)
+			header[i / 8] |= 1 << (i % 8);
+		return header;
+	}
+
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("bulk load interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	private static void readFully(FileChannel in, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = in.read(buf, position);
+			if (n < 0)
+				throw new EOFException();
+			position += n;
+		}
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining())
+			position += out.write(buf, position);
+	}
+
+	/**
+	 * The records parsed from one piece of the input, and statistics about
+	 * them. For slotted tables the records are then packed into page images.
+	 */
+	private class Chunk {
+		byte[] records;
+		int end = 0;
+		int[] starts = new int[1024];
+		int count = 0;
+		long first = -1;
+		byte[] pages = null;
+		int numPages = 0;
+		final int[] minPerField = new int[types.length];
+		final int[] maxPerField = new int[types.length];
+		final IntHistogram[] intHistograms = new IntHistogram[types.length];
+		final StringHistogram[] stringHistograms = new StringHistogram[types.length];
+
+		Chunk(int capacity) {
+			this.records = new byte[Math.max(capacity, recordBytes)];
+			Arrays.fill(this.minPerField, Integer.MAX_VALUE);
+			Arrays.fill(this.maxPerField, Integer.MIN_VALUE);
+		}
+
+		/** Make room for one more record, of at most recordBytes, and return its offset */
+		private int nextRecord() {
+			if (this.end + recordBytes > this.records.length)
+				this.records = Arrays.copyOf(this.records, Math.max(this.records.length * 2, this.end + recordBytes));
+			if (this.count == this.starts.length)
+				this.starts = Arrays.copyOf(this.starts, this.count * 2);
+			this.starts[this.count++] = this.end;
+			return this.end;
+		}
+
+		void addLine(byte[] text, int from, int to) throws IOException {
+			int offset = this.nextRecord();
+			int field = 0;
+			int fieldStart = from;
+			for (int i = from; i <= to; i++) {
+				if (i < to && text[i] != ',')
+					continue;
+				if (field == types.length)
+					throw malformed(text, from, to);
+				offset += this.putField(field++, offset, text, fieldStart, i);
+				fieldStart = i + 1;
+			}
+			if (field != types.length)
+				throw malformed(text, from, to);
+			this.end = offset;
+		}
+
+		void addTuple(List<Integer> tuple) {
+			if (tuple.size() != types.length)
+				throw new RuntimeException("Tuple does not have " + types.length + " fields: (" +
+						Utility.listToString(new ArrayList<Integer>(tuple)) + ")");
+			int offset = this.nextRecord();
+			ByteBuffer buf = ByteBuffer.wrap(this.records);
+			for (int i = 0; i < types.length; i++)
+				buf.putInt(offset + fieldOffsets[i], tuple.get(i));
+			this.end = offset + recordBytes;
+		}
+
+		/** Store one field at offset and return the number of bytes it takes */
+		private int putField(int field, int offset, byte[] text, int from, int to) throws IOException {
+			while (from < to && text[from] <= ' ')
+				from++;
+			while (to > from && text[to - 1] <= ' ')
+				to--;
+			ByteBuffer buf = ByteBuffer.wrap(this.records);
+			if (types[field] == Type.INT_TYPE) {
+				buf.putInt(offset, parseInt(text, from, to));
+				return Type.INT_TYPE.getLen();
+			}
+			int len = Math.min(to - from, Type.STRING_LEN);
+			buf.putInt(offset, len);
+			System.arraycopy(text, from, this.records, offset + 4, len);
+			return types[field].isFixedLength() ? types[field].getLen() : 4 + len;
+		}
+
+		private int fieldOffset(ByteBuffer buf, int record, int field) throws IOException {
+			int offset = this.starts[record];
+			if (!slotted)
+				return offset + fieldOffsets[field];
+			try {
+				for (int j = 0; j < field; j++)
+					offset += types[j].getLen(buf, offset);
+			} catch (ParseException e) {
+				throw new IOException("corrupt record " + record, e);
+			}
+			return offset;
+		}
+
+		/** Compute this chunk's statistics once all of its records are in */
+		void summarize() throws IOException {
+			ByteBuffer buf = ByteBuffer.wrap(this.records);
+			for (int i = 0; i < types.length; i++) {
+				if (types[i] == Type.INT_TYPE) {
+					for (int r = 0; r < this.count; r++) {
+						int v = buf.getInt(this.fieldOffset(buf, r, i));
+						this.minPerField[i] = Math.min(this.minPerField[i], v);
+						this.maxPerField[i] = Math.max(this.maxPerField[i], v);
+					}
+					if (this.count == 0)
+						continue;
+					this.intHistograms[i] = new IntHistogram(CHUNK_HIST_BINS, this.minPerField[i], this.maxPerField[i]);
+					for (int r = 0; r < this.count; r++)
+						this.intHistograms[i].addValue(buf.getInt(this.fieldOffset(buf, r, i)));
+				} else {
+					this.stringHistograms[i] = new StringHistogram(TableStats.NUM_HIST_BINS);
+					for (int r = 0; r < this.count; r++) {
+						int offset = this.fieldOffset(buf, r, i);
+						// only the first few characters of a string are histogrammed
+						this.stringHistograms[i].addValue(new String(this.records, offset + 4, Math.min(buf.getInt(offset), 4)));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Pack the records into slotted page images, filling each page before
+		 * starting the next, and drop the records.
+		 */
+		void paginate() throws IOException {
+			this.pages = new byte[pageBytes];
+			ByteBuffer buf = ByteBuffer.wrap(this.pages);
+			for (int r = 0; r < this.count; ) {
+				// take as many records as fit on the page
+				int first = r;
+				int bytes = 0;
+				while (r < this.count && r - first < slotsPerPage
+						&& HeapPage.SLOTTED_HEADER_BYTES + (r - first + 1) * HeapPage.SLOT_BYTES + bytes + this.length(r) <= pageBytes) {
+					bytes += this.length(r);
+					r++;
+				}
+				if (r == first)
+					throw new IOException("tuple does not fit on a page");
+
+				if ((this.numPages + 1) * pageBytes > this.pages.length) {
+					this.pages = Arrays.copyOf(this.pages, this.pages.length * 2);
+					buf = ByteBuffer.wrap(this.pages);
+				}
+				int page = this.numPages++ * pageBytes;
+				int offset = pageBytes - bytes;
+				buf.putInt(page, r - first);
+				for (int j = first; j < r; j++) {
+					int entry = page + HeapPage.SLOTTED_HEADER_BYTES + (j - first) * HeapPage.SLOT_BYTES;
+					buf.putShort(entry, (short) offset);
+					buf.putShort(entry + 2, (short) this.length(j));
+					System.arraycopy(this.records, this.starts[j], this.pages, page + offset, this.length(j));
+					offset += this.length(j);
+				}
+			}
+			this.records = null;
+			this.starts = null;
+		}
+
+		private int length(int record) {
+			return (record + 1 < this.count ? this.starts[record + 1] : this.end) - this.starts[record];
+		}
+	}
+
+	private static int parseInt(byte[] text, int from, int to) throws IOException {
+		boolean negative = from < to && text[from] == '-';
+		int i = negative || (from < to && text[from] == '+') ? from + 1 : from;
+		if (i == to || to - i > 10)
+			throw malformed(text, from, to);
+		long value = 0;
+		for (; i < to; i++) {
+			if (text[i] < '0' || text[i] > '9')
+				throw malformed(text, from, to);
+			value = value * 10 + (text[i] - '0');
+		}
+		value = negative ? -value : value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw malformed(text, from, to);
+		return (int) value;
+	}
+
+	private static IOException malformed(byte[] text, int from, int to) {
+		return new IOException("malformed input: " + new String(text, from, to - from));
+	}
+}
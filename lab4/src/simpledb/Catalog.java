@@ -156,6 +156,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varstring"))
+                        types.add(Type.VARSTRING_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -172,7 +174,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+                // a table stored by column is marked by "columnar" after the
+                // field list, and one with compressed pages by "compressed"
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf;
+                if (storage.equals("columnar"))
+                    tabHf = new ColumnFile(new File(name + ".dat"), t);
+                else if (storage.equals("compressed"))
+                    tabHf = new HeapFile(new File(name + ".dat"), t, false, true);
+                else if (storage.isEmpty())
+                    tabHf = new HeapFile(new File(name + ".dat"), t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
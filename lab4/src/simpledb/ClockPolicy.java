@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy implements the CLOCK (second chance) approximation of LRU.
+ * Every resident page owns a slot on a circular array with a reference bit
+ * that is set on each access. The clock hand sweeps the slots, clearing set
+ * bits and stopping at the first unreferenced page that may be evicted.
+ * <p>
+ * Hits only set a bit and do not take the policy's monitor, so they never
+ * contend with each other or with a sweep. A bit lost to a concurrent sweep
+ * or resize just costs that page its second chance.
+ * <p>
+ * Pages read by sequential scans are admitted without a reference bit and
+ * scan hits don't set it, so scanned pages are the first to go.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+	private PageId[] slots;
+	private volatile boolean[] referenced;
+	private Map<PageId, Integer> slotIndex = new ConcurrentHashMap<>();
+	private int[] freeSlots;
+	private int numFree = 0;
+	private int hand = 0;
+
+	/**
+	 * @param capacity the number of pages the buffer pool can hold
+	 */
+	public ClockPolicy(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.slots = new PageId[capacity];
+		this.referenced = new boolean[capacity];
+		this.freeSlots = new int[capacity];
+		for (int i = capacity - 1; i >= 0; i--)
+			this.freeSlots[this.numFree++] = i;
+	}
+
+	public void admit(PageId pid) {
+		this.admit(pid, false);
+	}
+
+	public synchronized void admit(PageId pid, boolean scan) {
+		if (this.slotIndex.containsKey(pid)) {
+			this.access(pid, scan);
+			return;
+		}
+		if (this.numFree == 0)
+			this.grow();
+
+		int slot = this.freeSlots[--this.numFree];
+		this.slots[slot] = pid;
+		this.referenced[slot] = !scan;
+		this.slotIndex.put(pid, slot);
+	}
+
+	public void access(PageId pid, boolean scan) {
+		if (!scan)
+			this.access(pid);
+	}
+
+	public void access(PageId pid) {
+		Integer slot = this.slotIndex.get(pid);
+		boolean[] bits = this.referenced;
+		if (slot != null && slot < bits.length)
+			bits[slot] = true;
+	}
+
+	public synchronized void remove(PageId pid) {
+		Integer slot = this.slotIndex.remove(pid);
+		if (slot != null)
+			this.release(slot);
+	}
+
+	public synchronized PageId evict(Predicate<PageId> evictable) {
+		// two full turns: the first may only clear reference bits
+		int steps = this.slots.length * 2;
+		for (int i = 0; i < steps; i++) {
+			int slot = this.hand;
+			this.hand = (this.hand + 1) % this.slots.length;
+
+			PageId pid = this.slots[slot];
+			if (pid == null)
+				continue;
+			if (this.referenced[slot]) {
+				this.referenced[slot] = false;
+				continue;
+			}
+			if (evictable.test(pid)) {
+				this.slotIndex.remove(pid);
+				this.release(slot);
+				return pid;
+			}
+		}
+		return null;
+	}
+
+	private void release(int slot) {
+		this.slots[slot] = null;
+		this.referenced[slot] = false;
+		this.freeSlots[this.numFree++] = slot;
+	}
+
+	/**
+	 * The buffer pool may briefly hold more pages than its nominal capacity
+	 * while concurrent misses are being resolved; make room for them.
+	 */
+	private void grow() {
+		int oldLength = this.slots.length;
+		int newLength = oldLength * 2;
+		this.slots = Arrays.copyOf(this.slots, newLength);
+		this.referenced = Arrays.copyOf(this.referenced, newLength);
+		this.freeSlots = Arrays.copyOf(this.freeSlots, newLength);
+		for (int i = newLength - 1; i >= oldLength; i--)
+			this.freeSlots[this.numFree++] = i;
+	}
+}
@@ -0,0 +1,400 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in its own page
+ * chain, so that a scan that needs only some of the columns reads only the
+ * pages of those columns. The values of row r sit at the same position of
+ * every column's chain (see {@link ColumnPage}); a further chain of live-row
+ * bitmaps records which rows exist, and is where rows are allocated and
+ * deleted. Tuples are identified by a RecordId on their live-row page.
+ * <p>
+ * The live-row chain is stored in the file given to the constructor, and
+ * column i in a file of the same name with ".i" appended.
+ *
+ * @see ColumnScan
+ */
+public class ColumnFile implements DbFile {
+	/** The column number of the live-row chain in a {@link ColumnPageId} */
+	public static final int LIVE_COLUMN = -1;
+
+	private File file;
+	private TupleDesc td;
+	private int id;
+	private int[] numPages;
+	private FileChannel[] channels;
+
+    /**
+     * Constructs a columnar table backed by the specified file and one file
+     * per column next to it. Files that don't exist yet make an empty table.
+     *
+     * @param f the file that stores the live-row chain of this table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+    	this.file = f;
+    	this.td = td;
+    	this.id = f.getAbsoluteFile().hashCode();
+    	this.numPages = new int[td.numFields() + 1];
+    	this.channels = new FileChannel[td.numFields() + 1];
+    	for (int column = LIVE_COLUMN; column < td.numFields(); column++)
+    		this.numPages[column + 1] = (int) (this.getFile(column).length() / BufferPool.PAGE_SIZE);
+    }
+
+    /** @return the file that stores the live-row chain of this table */
+    public File getFile() {
+    	return this.file;
+    }
+
+    /** @return the file that stores the page chain of the given column */
+    public File getFile(int column) {
+    	return column == LIVE_COLUMN ? this.file : new File(this.file.getPath() + "." + column);
+    }
+
+    public int getId() {
+    	return this.id;
+    }
+
+    public TupleDesc getTupleDesc() {
+    	return this.td;
+    }
+
+    /** @return the number of pages in the page chain of the given column */
+    public synchronized int numPages(int column) {
+    	return this.numPages[column + 1];
+    }
+
+    /** @return the number of pages in all page chains of this table */
+    public synchronized int numPages() {
+    	int total = 0;
+    	for (int n : this.numPages)
+    		total += n;
+    	return total;
+    }
+
+    /**
+     * Reading a page past the end of a chain adds blank pages to it up to
+     * and including that page. Rows are placed by row number, so an append
+     * can skip pages past rows left unwritten by an aborted transaction.
+     */
+    private synchronized boolean extend(ColumnPageId pid) {
+    	if (pid.pageno() < this.numPages[pid.column() + 1])
+    		return false;
+    	this.numPages[pid.column() + 1] = pid.pageno() + 1;
+    	return true;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId id) {
+    	ColumnPageId pid = (ColumnPageId) id;
+    	if (pid.pageno() < 0)
+    		throw new IllegalArgumentException("page " + pid + " is not in this file");
+    	if (this.extend(pid))
+    		return new ColumnPage(pid, ColumnPage.createEmptyPageData());
+
+    	try {
+    		ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+    		long offset = (long) pid.pageno() * BufferPool.PAGE_SIZE;
+    		// pages of aborted appends may never have reached the disk, and
+    		// read as zeroes
+    		while (buffer.hasRemaining()) {
+    			int read;
+    			try {
+    				read = this.getChannel(pid.column()).read(buffer, offset);
+    			} catch (ClosedByInterruptException e) {
+    				throw e;
+    			} catch (ClosedChannelException e) {
+    				// closed by an interrupt of another thread; reopen and go on
+    				continue;
+    			}
+    			if (read < 0)
+    				break;
+    			offset += read;
+    		}
+    		return new ColumnPage(pid, buffer.array());
+    	} catch (IOException e) {
+    		throw new UncheckedIOException("could not read page " + pid, e);
+    	}
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+    	ColumnPageId pid = (ColumnPageId) page.getId();
+    	ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
+    	long offset = (long) pid.pageno() * BufferPool.PAGE_SIZE;
+    	while (buffer.hasRemaining()) {
+    		try {
+    			offset += this.getChannel(pid.column()).write(buffer, offset);
+    		} catch (ClosedByInterruptException e) {
+    			throw e;
+    		} catch (ClosedChannelException e) {
+    			continue;
+    		}
+    	}
+    }
+
+    /**
+     * Each chain's file is opened once and shared by all threads, and opened
+     * again after an interrupt closes it, as in HeapFile.
+     */
+    private synchronized FileChannel getChannel(int column) throws IOException {
+    	if (this.channels[column + 1] == null || !this.channels[column + 1].isOpen())
+    		this.channels[column + 1] = FileChannel.open(this.getFile(column).toPath(),
+    				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    	return this.channels[column + 1];
+    }
+
+    /**
+     * Close the file handles held by this ColumnFile. Files are reopened on
+     * the next read or write.
+     */
+    public synchronized void close() throws IOException {
+    	for (int i = 0; i < this.channels.length; i++) {
+    		if (this.channels[i] != null) {
+    			this.channels[i].close();
+    			this.channels[i] = null;
+    		}
+    	}
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        return this.addTuples(tid, Collections.singletonList(t).iterator());
+    }
+
+    /**
+     * Appends the tuples as new rows after the last row of the table. The
+     * write lock on the last live-row page serializes appends, so rows are
+     * handed out in order; each page of each column is pinned and marked
+     * dirty once per batch.
+     *
+     * @see DbFile#addTuples
+     */
+    public ArrayList<Page> addTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> modifiedPages = new LinkedHashSet<>();
+        int livePerPage = ColumnPage.rowsPerPage(null);
+        ColumnPage[] pinned = new ColumnPage[this.td.numFields() + 1];
+
+        try {
+            if (tuples.hasNext())
+                pinned[0] = this.pinLastLivePage(tid);
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (!t.getTupleDesc().equals(this.td))
+                    throw new DbException("TupleDesc does not match");
+
+                ColumnPage live = pinned[0];
+                if (live.getNumRows() == livePerPage)
+                    live = this.pin(tid, pinned, LIVE_COLUMN, live.getId().pageno() + 1);
+                modifiedPages.add(live);
+                int index = live.appendRow();
+                int row = live.getId().pageno() * livePerPage + index;
+
+                for (int column = 0; column < this.td.numFields(); column++) {
+                    int perPage = ColumnPage.rowsPerPage(this.td.getType(column));
+                    ColumnPage page = this.pin(tid, pinned, column, row / perPage);
+                    page.setField(row % perPage, t.getField(column));
+                    modifiedPages.add(page);
+                }
+                t.setRecordId(new RecordId(live.getId(), index));
+            }
+        } finally {
+            for (ColumnPage page : pinned)
+                if (page != null)
+                    Database.getBufferPool().unpinPage(tid, page.getId());
+        }
+
+        return new ArrayList<>(modifiedPages);
+    }
+
+    /**
+     * Pin and write lock the last page of the live-row chain, retrying if
+     * another transaction extended the chain while this one waited for the
+     * lock.
+     */
+    private ColumnPage pinLastLivePage(TransactionId tid)
+        throws DbException, TransactionAbortedException {
+        while (true) {
+            int last = Math.max(this.numPages(LIVE_COLUMN) - 1, 0);
+            ColumnPageId pid = new ColumnPageId(this.id, LIVE_COLUMN, last);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+            if (last >= this.numPages(LIVE_COLUMN) - 1) {
+                page.markDirty(true, tid);
+                return page;
+            }
+            Database.getBufferPool().unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * Make the given page of a column the one pinned for it in pinned,
+     * write locking it and marking it dirty.
+     */
+    private ColumnPage pin(TransactionId tid, ColumnPage[] pinned, int column, int pageno)
+        throws DbException, TransactionAbortedException {
+        ColumnPage page = pinned[column + 1];
+        if (page != null && page.getId().pageno() == pageno)
+            return page;
+        if (page != null) {
+            Database.getBufferPool().unpinPage(tid, page.getId());
+            pinned[column + 1] = null;
+        }
+        ColumnPageId pid = new ColumnPageId(this.id, column, pageno);
+        page = (ColumnPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        pinned[column + 1] = page;
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != this.id
+                || ((ColumnPageId) rid.getPageId()).column() != LIVE_COLUMN)
+            throw new DbException("tuple is not a member of this file");
+
+        PageId pid = rid.getPageId();
+        ColumnPage page = (ColumnPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            if (!page.isLive(rid.tupleno()))
+                throw new DbException("tuple slot is already empty");
+            page.setLive(rid.tupleno(), false);
+            page.markDirty(true, tid);
+        } finally {
+            Database.getBufferPool().unpinPage(tid, pid);
+        }
+        return page;
+    }
+
+    /**
+     * @return a TupleDesc with the types and names of the given columns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = this.td.getType(columns[i]);
+            names[i] = this.td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[this.td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = i;
+        return this.iterator(tid, columns);
+    }
+
+    /**
+     * Returns an iterator over the given columns of all the rows of this
+     * table, which reads only the live-row chain and the chains of those
+     * columns. Its tuples have the TupleDesc {@link #getTupleDesc(int[])},
+     * and a RecordId that {@link #deleteTuple} accepts.
+     *
+     * @param columns the columns to read, in the order they are returned
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        class ColumnFileIterator extends AbstractDbFileIterator {
+            private TupleDesc projected = ColumnFile.this.getTupleDesc(columns);
+            private int[] perPage = new int[columns.length];
+            private int livePerPage = ColumnPage.rowsPerPage(null);
+            private ColumnPage live = null;
+            private ColumnPage[] pages = null;
+            private int nextLivePage = 0;
+            private int index = 0;
+
+            public void open() throws DbException, TransactionAbortedException {
+                for (int i = 0; i < columns.length; i++)
+                    this.perPage[i] = ColumnPage.rowsPerPage(ColumnFile.this.td.getType(columns[i]));
+                this.pages = new ColumnPage[columns.length];
+            }
+
+            public void close() {
+                super.close();
+                this.unpinAll();
+                this.pages = null;
+                this.nextLivePage = 0;
+                this.index = 0;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                this.close();
+                this.open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (this.pages == null)
+                    return null;
+
+                while (this.live == null || !this.live.isLive(this.index)) {
+                    if (this.live != null && this.index < this.live.getNumRows()) {
+                        this.index++;
+                        continue;
+                    }
+                    if (this.live != null) {
+                        Database.getBufferPool().unpinPage(tid, this.live.getId());
+                        this.live = null;
+                    }
+                    if (this.nextLivePage >= ColumnFile.this.numPages(LIVE_COLUMN))
+                        return null;
+                    this.live = this.pin(LIVE_COLUMN, this.nextLivePage++);
+                    this.index = 0;
+                }
+
+                int row = this.live.getId().pageno() * this.livePerPage + this.index;
+                Tuple t = new Tuple(this.projected);
+                for (int i = 0; i < columns.length; i++) {
+                    int pageno = row / this.perPage[i];
+                    if (this.pages[i] == null || this.pages[i].getId().pageno() != pageno) {
+                        if (this.pages[i] != null)
+                            Database.getBufferPool().unpinPage(tid, this.pages[i].getId());
+                        this.pages[i] = null;
+                        this.pages[i] = this.pin(columns[i], pageno);
+                    }
+                    t.setField(i, this.pages[i].getField(row % this.perPage[i]));
+                }
+                t.setRecordId(new RecordId(this.live.getId(), this.index));
+                this.index++;
+                return t;
+            }
+
+            /**
+             * Pages are pinned while their values are being returned so the
+             * buffer pool cannot evict them under the scan.
+             */
+            private ColumnPage pin(int column, int pageno)
+                throws DbException, TransactionAbortedException {
+                ColumnPageId pid = new ColumnPageId(ColumnFile.this.id, column, pageno);
+                return (ColumnPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, true);
+            }
+
+            private void unpinAll() {
+                if (this.live != null) {
+                    Database.getBufferPool().unpinPage(tid, this.live.getId());
+                    this.live = null;
+                }
+                if (this.pages != null) {
+                    for (int i = 0; i < this.pages.length; i++) {
+                        if (this.pages[i] != null)
+                            Database.getBufferPool().unpinPage(tid, this.pages[i].getId());
+                        this.pages[i] = null;
+                    }
+                }
+            }
+        }
+
+        return new ColumnFileIterator();
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnPage stores one page of a ColumnFile. A page of a column holds the
+ * values of that column for a run of consecutive rows, each in a fixed-width
+ * slot of {@link Type#getLen()} bytes, so the value of row r of a column is
+ * always in slot r % rowsPerPage of page r / rowsPerPage.
+ * <p>
+ * A page of the live-row chain holds a 4-byte count of the rows allocated
+ * on the page, then a bitmap with one bit per row that is set while the row
+ * exists. An all-zero page is an empty page of either kind.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+	private ColumnPageId pid;
+	private Type type;
+	private int width;
+	private byte[] data;
+	/**
+	 * The before-image, or null while data is still unmodified. Neither
+	 * image is changed in place while it may be shared: the first write
+	 * after a new before-image keeps the old array and works on a copy.
+	 */
+	private byte[] oldData = null;
+	private TransactionId dirtier = null;
+
+	/** Bytes at the start of a live-row page that hold its row count */
+	static final int LIVE_HEADER_BYTES = 4;
+
+    /**
+     * Create a ColumnPage from a page image read from disk. The type of the
+     * values comes from the catalog entry of the page's table.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+    	this.pid = id;
+    	if (id.column() != ColumnFile.LIVE_COLUMN) {
+    		this.type = Database.getCatalog().getTupleDesc(id.getTableId()).getType(id.column());
+    		this.width = this.type.getLen();
+    	}
+    	this.data = data;
+    }
+
+    /**
+     * @return the number of rows whose values fit on a page of a column of
+     *   the given type, or on a live-row page if type is null
+     */
+    public static int rowsPerPage(Type type) {
+    	if (type == null)
+    		return (BufferPool.PAGE_SIZE - LIVE_HEADER_BYTES) * 8;
+    	return BufferPool.PAGE_SIZE / type.getLen();
+    }
+
+    /** @return an empty page image */
+    public static byte[] createEmptyPageData() {
+    	return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public ColumnPageId getId() {
+    	return this.pid;
+    }
+
+    /**
+     * @return the value in the given slot of a column page
+     */
+    public Field getField(int slot) {
+    	try {
+    		return this.type.parse(ByteBuffer.wrap(this.data), slot * this.width);
+    	} catch (ParseException e) {
+    		e.printStackTrace();
+    		throw new NoSuchElementException("parsing error!");
+    	}
+    }
+
+    /**
+     * Store a value in the given slot of a column page.
+     */
+    public void setField(int slot, Field f) {
+    	this.copyOnWrite();
+    	ByteBuffer buf = ByteBuffer.wrap(this.data);
+    	buf.position(slot * this.width);
+    	this.type.serialize(f, buf);
+    	Arrays.fill(this.data, buf.position(), (slot + 1) * this.width, (byte) 0);
+    }
+
+    /** @return the number of rows allocated on a live-row page */
+    public int getNumRows() {
+    	return ByteBuffer.wrap(this.data).getInt(0);
+    }
+
+    /**
+     * Allocate the next row of a live-row page and mark it live.
+     *
+     * @return the index of the row on the page
+     * @throws DbException if every row of the page has been allocated
+     */
+    public int appendRow() throws DbException {
+    	int row = this.getNumRows();
+    	if (row >= rowsPerPage(null))
+    		throw new DbException("no rows left on page " + this.pid);
+    	this.copyOnWrite();
+    	ByteBuffer.wrap(this.data).putInt(0, row + 1);
+    	this.setLive(row, true);
+    	return row;
+    }
+
+    /** @return true if the row at the given index of a live-row page exists */
+    public boolean isLive(int row) {
+    	return row < this.getNumRows()
+    			&& (this.data[LIVE_HEADER_BYTES + row / 8] & (1 << (row % 8))) != 0;
+    }
+
+    /**
+     * Mark the row at the given index of a live-row page as existing or
+     * deleted.
+     */
+    public void setLive(int row, boolean live) {
+    	this.copyOnWrite();
+    	int i = LIVE_HEADER_BYTES + row / 8;
+    	if (live)
+    		this.data[i] |= (1 << (row % 8));
+    	else
+    		this.data[i] &= ~(1 << (row % 8));
+    }
+
+    /** Keep the current image as the before-image before its first change. */
+    private void copyOnWrite() {
+    	if (this.oldData == null) {
+    		this.oldData = this.data;
+    		this.data = this.data.clone();
+    	}
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+    	this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+    	return this.dirtier;
+    }
+
+    public byte[] getPageData() {
+    	return this.data.clone();
+    }
+
+    public ColumnPage getBeforeImage() {
+    	return new ColumnPage(this.pid, this.oldData != null ? this.oldData : this.data);
+    }
+
+    public void setBeforeImage() {
+    	this.oldData = null;
+    }
+}
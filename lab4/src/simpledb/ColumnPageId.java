@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for ColumnPage objects: a page of one column's page
+ * chain, or of the chain of live-row bitmaps, of a ColumnFile.
+ */
+public class ColumnPageId implements PageId {
+	private int tableId;
+	private int column;
+	private int pgNo;
+
+    /**
+     * Create a page id for a page of one column of a columnar table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column, or {@link ColumnFile#LIVE_COLUMN} for the
+     *   live-row bitmaps
+     * @param pgNo The page number in that column's page chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+    	this.tableId = tableId;
+    	this.column = column;
+    	this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+    	return this.tableId;
+    }
+
+    /** @return the column whose page chain this page belongs to */
+    public int column() {
+    	return this.column;
+    }
+
+    /** @return the page number in the column's page chain */
+    public int pageno() {
+    	return this.pgNo;
+    }
+
+    /**
+     * The column goes in the high bits: hashing it like the page number would
+     * make page p of one column collide with page p - 31 of the next.
+     */
+    public int hashCode() {
+    	return Objects.hash(this.tableId, this.pgNo) ^ (this.column << 24);
+    }
+
+    public boolean equals(Object o) {
+    	if (!(o instanceof ColumnPageId))
+    		return false;
+    	ColumnPageId other = (ColumnPageId) o;
+    	return this.tableId == other.tableId && this.column == other.column && this.pgNo == other.pgNo;
+    }
+
+    public String toString() {
+    	return "ColumnPageId(" + this.tableId + ", " + this.column + ", " + this.pgNo + ")";
+    }
+
+    /**
+     * @return the table, column and page number, matching the arguments of
+     *   the constructor
+     */
+    public int[] serialize() {
+    	return new int[] { this.tableId, this.column, this.pgNo };
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan over some of the columns of a table
+ * stored in a {@link ColumnFile}. Only the pages of those columns are read,
+ * which makes scans that touch a few columns of a wide table much cheaper
+ * than a {@link SeqScan} over the same table.
+ */
+public class ColumnScan implements DbIterator {
+	private int tableid;
+	private String tableAlias;
+	private int[] columns;
+	private DbFileIterator it;
+
+    /**
+     * Creates a scan over the given columns of the specified table as a
+     * part of the specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan, which must be a ColumnFile.
+     * @param tableAlias the alias of this table, which prefixes the field
+     *        names of the returned tupleDesc as in {@link SeqScan}
+     * @param columns the columns of the table to return, in order
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+    	this.tableid = tableid;
+    	this.tableAlias = tableAlias;
+    	this.columns = columns.clone();
+    	ColumnFile file = (ColumnFile) Database.getCatalog().getDbFile(tableid);
+    	this.it = file.iterator(tid, this.columns);
+    }
+
+    /** @return the columns of the table this scan returns */
+    public int[] getColumns() {
+    	return this.columns.clone();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+    	this.it.open();
+    }
+
+    /**
+     * Returns the types and names of the scanned columns, with the names
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+    	TupleDesc td = Database.getCatalog().getTupleDesc(this.tableid);
+    	Type[] typeArr = new Type[this.columns.length];
+    	String[] nameArr = new String[this.columns.length];
+    	for (int i = 0; i < this.columns.length; i++) {
+    		typeArr[i] = td.getType(this.columns[i]);
+    		nameArr[i] = this.tableAlias + "." + td.getFieldName(this.columns[i]);
+    	}
+    	return new TupleDesc(typeArr, nameArr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+    	return this.it.hasNext();
+    }
+
+    public Tuple next()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+    	return this.it.next();
+    }
+
+    public void close() {
+    	this.it.close();
+    }
+
+    public void rewind()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+    	this.close();
+    	this.open();
+    }
+}
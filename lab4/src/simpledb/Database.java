@@ -56,6 +56,7 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        _instance._bufferpool.cancelBackgroundWriter();
         _instance._bufferpool = new BufferPool(pages);
         _instance._lockManager = new LockManager();
         return _instance._bufferpool;
@@ -43,6 +43,25 @@ public interface DbFile {
     public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Adds all of the specified tuples to the file on behalf of transaction.
+     * Files that can place several tuples per page lock should override this;
+     * the default simply calls {@link #addTuple} for each tuple.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add
+     * @return An ArrayList containing each page that was modified, once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> addTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> modifiedPages = new LinkedHashSet<Page>();
+        while (tuples.hasNext())
+            modifiedPages.addAll(addTuple(tid, tuples.next()));
+        return new ArrayList<Page>(modifiedPages);
+    }
+
     /**
      * Removes the specifed tuple from the file on behalf of the specified
      * transaction.
@@ -64,6 +83,19 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile, like
+     * {@link #iterator(TransactionId)}, for a scan that may know it belongs
+     * to a plan that only reads. Such a scan may lock the whole table
+     * instead of each page.
+     *
+     * @param readOnly true if the plan the scan belongs to writes nothing
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, boolean readOnly) {
+        return this.iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDbFile} and
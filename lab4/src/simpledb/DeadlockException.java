@@ -4,4 +4,8 @@ public class DeadlockException extends Exception {
 	DeadlockException(Exception e) {
 		super(e);
 	}
+
+	DeadlockException(String message) {
+		super(message);
+	}
 }
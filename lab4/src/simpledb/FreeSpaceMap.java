@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile are known
+ * to be full, so inserts can skip straight to a page that may have room.
+ * <p>
+ * The map is only a hint. Inserts still check the page they are sent to, and
+ * a page that turns out to be full is marked as such and skipped from then
+ * on. Pages the map knows nothing about are assumed to have free space.
+ * <p>
+ * The map can be saved to a sidecar file next to the table. A saved map is
+ * ignored if the table was modified after it was written.
+ */
+public class FreeSpaceMap {
+	private final BitSet full = new BitSet();
+
+	/**
+	 * @return the number of the first page at or after from that may have a
+	 *         free slot, or -1 if every page before numPages is full
+	 */
+	public synchronized int nextFreePage(int from, int numPages) {
+		int pageno = this.full.nextClearBit(from);
+		return pageno < numPages ? pageno : -1;
+	}
+
+	/**
+	 * Record whether a page has at least one free slot.
+	 */
+	public synchronized void setFree(int pageno, boolean free) {
+		this.full.set(pageno, !free);
+	}
+
+	/**
+	 * Forget the pages from numPages onwards, after the file was truncated.
+	 */
+	public synchronized void truncate(int numPages) {
+		this.full.clear(numPages, Math.max(numPages, this.full.length()));
+	}
+
+	/**
+	 * Write this map to f.
+	 */
+	public synchronized void save(File f) throws IOException {
+		long[] words = this.full.toLongArray();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeInt(words.length);
+			for (long word : words)
+				out.writeLong(word);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read the map saved for table from f, if there is one that is still
+	 * current.
+	 *
+	 * @return the saved map, or an empty map if f is missing, stale or unreadable
+	 */
+	public static FreeSpaceMap load(File f, File table) {
+		FreeSpaceMap map = new FreeSpaceMap();
+		if (!f.exists() || f.lastModified() < table.lastModified())
+			return map;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			try {
+				int numWords = in.readInt();
+				if (numWords < 0 || numWords > f.length() / 8)
+					throw new IOException("corrupt free space map " + f);
+				long[] words = new long[numWords];
+				for (int i = 0; i < words.length; i++)
+					words[i] = in.readLong();
+				map.full.or(BitSet.valueOf(words));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			map.full.clear();
+		}
+		return map;
+	}
+}
@@ -1,8 +1,14 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection
@@ -19,6 +25,21 @@ public class HeapFile implements DbFile {
 	private TupleDesc td;
 	private int id;
 	private int numPages;
+	private volatile FileChannel channel = null;
+	private boolean memoryMapped = false;
+	private boolean compressed = false;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private FreeSpaceMap freeSpace;
+
+	/** Number of pages covered by one mapping of a memory-mapped HeapFile (64 MB). */
+	private static final int MAP_SEGMENT_PAGES = 16384;
+
+	/** Pages a scan reads ahead once it is under way, and the most it ever reads ahead. */
+	private static final int MIN_READ_AHEAD = 4;
+	private static final int MAX_READ_AHEAD = 64;
+
+	private static final ThreadLocal<ByteBuffer> IO_BUFFER =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE));
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,6 +52,46 @@ public class HeapFile implements DbFile {
     	this.td = td;
     	this.id = f.getAbsoluteFile().hashCode();
     	this.numPages = (int) f.length() / BufferPool.PAGE_SIZE;
+    	this.freeSpace = FreeSpaceMap.load(this.getFreeSpaceFile(), f);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through memory mappings of the file. Mapped pages are decoded
+     * straight from the OS page cache, which suits read-mostly tables; writes
+     * still go through the file channel and show up in the mappings.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param memoryMapped true to map the file rather than read pages into arrays
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+    	this(f, td);
+    	this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally storing
+     * its pages in the compressed layout described in the HeapPage
+     * constructor. Compressed pages hold many more tuples of repetitive
+     * tables, so scans read fewer pages and each buffer pool frame caches
+     * more tuples, at the cost of decoding each page when it is read and
+     * encoding it when it is written. A file must always be opened with the
+     * layout it was written with.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param memoryMapped true to map the file rather than read pages into arrays
+     * @param compressed true if the pages of the file are compressed
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, boolean compressed) {
+    	this(f, td, memoryMapped);
+    	this.compressed = compressed;
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed
+     */
+    public boolean isCompressed() {
+    	return this.compressed;
     }
 
     /**
@@ -43,6 +104,13 @@ public class HeapFile implements DbFile {
         return this.file;
     }
 
+    /**
+     * Returns the sidecar file the free space map of this HeapFile is saved to.
+     */
+    public File getFreeSpaceFile() {
+    	return new File(this.file.getPath() + ".fsm");
+    }
+
     /**
     * Returns an ID uniquely identifying this HeapFile. Implementation note:
     * you will need to generate this tableid somewhere ensure that each
@@ -71,33 +139,51 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-    	int pageSize = Database.getBufferPool().PAGE_SIZE;
-    	int pageOffset = pid.pageno() * pageSize;
-    	byte[] bytes = new byte[pageSize];
-    	int bytesRead = 0;
-    	
+    	ByteBuffer mapped = null;
     	try {
             // add a new blank page to the HeapFile
-            if (pid.pageno() == this.numPages()) {
-                this.numPages++;
+            if (this.appendPage(pid.pageno())) {
                 return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+            // decode the existing page from the mapped file
+            } else if (this.memoryMapped && (mapped = this.mappedPage(pid.pageno())) != null) {
+                return this.noteFreeSpace(new HeapPage((HeapPageId) pid, mapped));
             // read the existing page from disk
             } else {
-                RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r");
-                randomAccessFile.seek(pageOffset);
-                randomAccessFile.read(bytes);
-                randomAccessFile.close();
-                return new HeapPage((HeapPageId) pid, bytes);
+                ByteBuffer buffer = HeapFile.ioBuffer(BufferPool.PAGE_SIZE);
+                this.readFully(buffer, (long) pid.pageno() * BufferPool.PAGE_SIZE);
+                byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+                buffer.get(bytes);
+                return this.noteFreeSpace(new HeapPage((HeapPageId) pid, bytes));
             }
     	}
-    	catch (FileNotFoundException e) {
-    		e.printStackTrace();
-    	}
     	catch (IOException e) {
-    		e.printStackTrace();
+    		throw new UncheckedIOException("could not read page " + pid.pageno() + " of " + this.file, e);
     	}
+    }
+
+    /**
+     * Read a run of consecutive pages with a single positional read.
+     * Pages past the end of the file are not returned.
+     *
+     * @param pageno the number of the first page to read
+     * @param count the maximum number of pages to read
+     * @return the pages read, in page number order
+     * @throws IOException if the file can't be read
+     */
+    public List<Page> readPages(int pageno, int count) throws IOException {
+    	count = Math.min(count, this.numPages() - pageno);
+    	List<Page> pages = new ArrayList<>(Math.max(count, 0));
+    	if (count <= 0)
+    		return pages;
     	
-    	return null;
+    	ByteBuffer buffer = HeapFile.ioBuffer(count * BufferPool.PAGE_SIZE);
+    	this.readFully(buffer, (long) pageno * BufferPool.PAGE_SIZE);
+    	for (int i = 0; i < count; i++) {
+    		byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+    		buffer.get(bytes);
+    		pages.add(this.noteFreeSpace(new HeapPage(new HeapPageId(this.getId(), pageno + i), bytes)));
+    	}
+    	return pages;
     }
 
     // see DbFile.java for javadocs
@@ -105,11 +191,187 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
     	PageId pid = page.getId();
-        long pageOffset = pid.pageno() * BufferPool.PAGE_SIZE;
-        RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
-        randomAccessFile.seek(pageOffset);
-        randomAccessFile.write(page.getPageData());
-        randomAccessFile.close();
+        long pageOffset = (long) pid.pageno() * BufferPool.PAGE_SIZE;
+        ByteBuffer buffer = HeapFile.ioBuffer(BufferPool.PAGE_SIZE);
+        ((HeapPage) page).writePageData(buffer);
+        buffer.flip();
+        this.writeFully(buffer, pageOffset);
+    }
+
+    /**
+     * Write a batch of pages sorted by page number. Each run of consecutive
+     * pages goes to disk in a single positional write.
+     *
+     * @param pages the pages to write, in ascending page number order
+     * @throws IOException if the file can't be written
+     */
+    public void writePages(List<Page> pages) throws IOException {
+    	int start = 0;
+    	while (start < pages.size()) {
+    		int end = start + 1;
+    		while (end < pages.size()
+    				&& pages.get(end).getId().pageno() == pages.get(end - 1).getId().pageno() + 1)
+    			end++;
+    		
+    		ByteBuffer buffer = HeapFile.ioBuffer((end - start) * BufferPool.PAGE_SIZE);
+    		for (int i = start; i < end; i++)
+    			((HeapPage) pages.get(i)).writePageData(buffer);
+    		buffer.flip();
+    		this.writeFully(buffer, (long) pages.get(start).getId().pageno() * BufferPool.PAGE_SIZE);
+    		start = end;
+    	}
+    }
+
+    /**
+     * Grow the file by one page if pageno is the page just past its end.
+     * Checked and done under the file's monitor so it cannot interleave
+     * with a vacuum truncating the file.
+     */
+    private synchronized boolean appendPage(int pageno) {
+    	if (pageno != this.numPages)
+    		return false;
+    	this.numPages++;
+    	return true;
+    }
+
+    /**
+     * Every page read from disk refreshes what the free space map knows about
+     * it, which also repairs hints left behind by aborted transactions. The
+     * buffer pool does the same for pages it rolls back.
+     */
+    HeapPage noteFreeSpace(HeapPage page) {
+    	this.freeSpace.setFree(page.getId().pageno(), page.getNumEmptySlots() > 0);
+    	return page;
+    }
+
+    /**
+     * Close the file handle held by this HeapFile and save its free space
+     * map. The file is reopened on the next read or write.
+     */
+    public synchronized void close() throws IOException {
+    	this.segments = new MappedByteBuffer[0];
+    	if (this.channel != null) {
+    		this.channel.close();
+    		this.channel = null;
+    	}
+    	this.saveFreeSpace();
+    }
+
+    /**
+     * Save the free space map to its sidecar file, so that the next HeapFile
+     * opened on this file starts from it. Called after the buffer pool
+     * flushes every page, as on a checkpoint.
+     */
+    public void saveFreeSpace() throws IOException {
+    	this.freeSpace.save(this.getFreeSpaceFile());
+    }
+
+    /** The free space map of this file, for tests. */
+    FreeSpaceMap getFreeSpaceMap() {
+    	return this.freeSpace;
+    }
+
+    /**
+     * Return a read-only view of a page inside the file mapping, mapping or
+     * remapping the segment that holds it if the file has grown past the
+     * current mapping.
+     *
+     * @return the page image, or null if the page is not on disk yet
+     */
+    private synchronized ByteBuffer mappedPage(int pageno) throws IOException {
+    	int segment = pageno / MAP_SEGMENT_PAGES;
+    	int offset = (pageno % MAP_SEGMENT_PAGES) * BufferPool.PAGE_SIZE;
+    	if (segment >= this.segments.length)
+    		this.segments = Arrays.copyOf(this.segments, segment + 1);
+    	
+    	MappedByteBuffer mapping = this.segments[segment];
+    	if (mapping == null || mapping.capacity() < offset + BufferPool.PAGE_SIZE) {
+    		FileChannel channel = this.getChannel();
+    		long segmentStart = (long) segment * MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE;
+    		long length = Math.min((long) MAP_SEGMENT_PAGES * BufferPool.PAGE_SIZE, channel.size() - segmentStart);
+    		if (length < offset + BufferPool.PAGE_SIZE)
+    			return null;
+    		mapping = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, length);
+    		this.segments[segment] = mapping;
+    	}
+    	
+    	ByteBuffer page = mapping.duplicate();
+    	page.position(offset);
+    	page.limit(offset + BufferPool.PAGE_SIZE);
+    	return page.slice();
+    }
+
+    /**
+     * The file is opened once and shared by all threads; positional reads and
+     * writes never move a shared file pointer, so no further locking is needed.
+     * Interrupting a thread blocked in I/O on the channel closes it for every
+     * thread, so a closed channel is opened again.
+     */
+    private FileChannel getChannel() throws IOException {
+    	FileChannel channel = this.channel;
+    	if (channel == null || !channel.isOpen()) {
+    		synchronized (this) {
+    			if (this.channel == null || !this.channel.isOpen())
+    				this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE,
+    						StandardOpenOption.READ, StandardOpenOption.WRITE);
+    			channel = this.channel;
+    		}
+    	}
+    	return channel;
+    }
+
+    /**
+     * Fill buffer from the given file offset. Bytes past the end of the file
+     * read as zero. The buffer is flipped, ready to be drained.
+     */
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    	while (buffer.hasRemaining()) {
+    		int read;
+    		try {
+    			read = this.getChannel().read(buffer, offset);
+    		} catch (ClosedByInterruptException e) {
+    			throw e;
+    		} catch (ClosedChannelException e) {
+    			// closed by an interrupt of another thread; reopen and go on
+    			continue;
+    		}
+    		if (read < 0)
+    			break;
+    		offset += read;
+    	}
+    	while (buffer.hasRemaining())
+    		buffer.put((byte) 0);
+    	buffer.flip();
+    }
+
+    /**
+     * Drain buffer to the file from the given offset, reopening the channel if
+     * an interrupt of another thread closed it.
+     */
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+    	while (buffer.hasRemaining()) {
+    		try {
+    			offset += this.getChannel().write(buffer, offset);
+    		} catch (ClosedByInterruptException e) {
+    			throw e;
+    		} catch (ClosedChannelException e) {
+    			continue;
+    		}
+    	}
+    }
+
+    /**
+     * Return this thread's direct I/O buffer, cleared and limited to size bytes.
+     */
+    private static ByteBuffer ioBuffer(int size) {
+    	ByteBuffer buffer = IO_BUFFER.get();
+    	if (buffer.capacity() < size) {
+    		buffer = ByteBuffer.allocateDirect(size);
+    		IO_BUFFER.set(buffer);
+    	}
+    	buffer.clear();
+    	buffer.limit(size);
+    	return buffer;
     }
 
     /**
@@ -125,34 +387,228 @@ public class HeapFile implements DbFile {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-    	ArrayList<Page> modifiedPages = new ArrayList<>();
+        return this.addTuples(tid, Collections.singletonList(t).iterator());
+    }
+
+    /**
+     * Adds the tuples in order, filling each page before moving on to the
+     * next one. Each page is locked, pinned and marked dirty once per batch
+     * rather than once per tuple.
+     *
+     * @see DbFile#addTuples
+     */
+    public ArrayList<Page> addTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> modifiedPages = new ArrayList<>();
         HeapPage pageWithSpace = null;
+        int nextPageNo = 0;
 
-        // find a page that has an space for a new tuple
-        for (int currentPageNo = 0; currentPageNo < this.numPages(); currentPageNo++) {
+        try {
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (pageWithSpace == null || !pageWithSpace.hasRoomFor(t)) {
+                    if (pageWithSpace != null) {
+                        this.releasePageWithSpace(tid, pageWithSpace);
+                        pageWithSpace = null;
+                    }
+                    pageWithSpace = this.pinPageWithSpace(tid, nextPageNo, this.numPages(), t);
+                    if (pageWithSpace == null)
+                        pageWithSpace = this.pinNewPage(tid);
+                    nextPageNo = pageWithSpace.getId().pageno() + 1;
+                    // the page stays pinned until the batch moves on, so it
+                    // cannot be evicted with new tuples only in memory
+                    pageWithSpace.markDirty(true, tid);
+                    modifiedPages.add(pageWithSpace);
+                }
+                pageWithSpace.addTuple(t);
+            }
+        } finally {
+            if (pageWithSpace != null)
+                this.releasePageWithSpace(tid, pageWithSpace);
+        }
+
+        return modifiedPages;
+    }
+
+    /**
+     * Find a page from from up to but not including to that has space for t,
+     * asking the free space map which pages are worth looking at. The page is
+     * returned pinned and write locked.
+     *
+     * @return the page, or null if none of the pages has room
+     */
+    private HeapPage pinPageWithSpace(TransactionId tid, int from, int to, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        int currentPageNo = this.freeSpace.nextFreePage(from, to);
+        while (currentPageNo >= 0) {
             HeapPageId pageId = new HeapPageId(this.getId(), currentPageNo);
             HeapPage currentPage = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            if (currentPage.getNumEmptySlots() > 0) {
-                pageWithSpace = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-                break;
+            if (currentPage.hasRoomFor(t)) {
+                return (HeapPage)Database.getBufferPool().pinPage(tid, pageId, Permissions.READ_WRITE);
             } else {
             	Database.getBufferPool().releasePage(tid,  pageId);
+            	this.freeSpace.setFree(currentPageNo, currentPage.getNumEmptySlots() > 0);
             }
+            currentPageNo = this.freeSpace.nextFreePage(currentPageNo + 1, to);
         }
+        return null;
+    }
 
-        // add tuple to a page with space
-        if (pageWithSpace != null) {
-            pageWithSpace.addTuple(t);
-            modifiedPages.add(pageWithSpace);
-        //  create a new blank page and add the tuple
-        } else {
+    /**
+     * Add a new blank page to the end of the file, returned pinned and write
+     * locked. If a vacuum truncated the file while the lock was awaited, the
+     * page is past the new end; it is dropped and the new end tried instead.
+     */
+    private HeapPage pinNewPage(TransactionId tid)
+        throws DbException, IOException, TransactionAbortedException {
+        while (true) {
             HeapPageId newPageId = new HeapPageId(this.getId(), this.numPages());
-            HeapPage newPage = (HeapPage)Database.getBufferPool().getPage(tid, newPageId, Permissions.READ_WRITE);
-            newPage.addTuple(t);
-            modifiedPages.add(newPage);
+            HeapPage page = (HeapPage)Database.getBufferPool().pinPage(tid, newPageId, Permissions.READ_WRITE);
+            if (newPageId.pageno() < this.numPages())
+                return page;
+            Database.getBufferPool().unpinPage(tid, newPageId);
+            Database.getBufferPool().discardPage(newPageId);
+            Database.getBufferPool().releasePage(tid, newPageId);
         }
+    }
 
-        return modifiedPages;
+    /**
+     * Record how much room is left on a page filled by addTuples and unpin it.
+     */
+    private void releasePageWithSpace(TransactionId tid, HeapPage page) {
+        this.freeSpace.setFree(page.getId().pageno(), page.getNumEmptySlots() > 0);
+        Database.getBufferPool().unpinPage(tid, page.getId());
+    }
+
+    /**
+     * Compact this file online: move the tuples of the pages at its end into
+     * free space on earlier pages, then truncate the pages left empty, so
+     * that scans only read as many pages as the live tuples need.
+     * <p>
+     * Each page is emptied by its own short transaction, so concurrent
+     * transactions are only blocked by the page being emptied and the pages
+     * its tuples move to. Tuples only move to pages that have free space, and
+     * a page is only emptied if all of its tuples fit before it; the
+     * compaction stops at the first page that cannot be emptied, so pages
+     * that are already dense are never rewritten. A transaction aborted by a
+     * conflicting lock also ends the compaction, keeping what was done.
+     * <p>
+     * Moved tuples get new record ids.
+     *
+     * @return the number of pages the file shrank by
+     */
+    public int vacuum() throws DbException, IOException {
+        int oldNumPages = this.numPages();
+        int end = oldNumPages;
+        while (end > 0) {
+            Transaction xact = new Transaction();
+            xact.start();
+            boolean emptied = false;
+            try {
+                emptied = this.emptyPage(xact.getId(), end - 1);
+            } catch (TransactionAbortedException e) {
+                // a conflicting transaction; stop here
+            } finally {
+                xact.transactionComplete(!emptied);
+            }
+            if (!emptied)
+                break;
+            end--;
+        }
+        this.truncate(end);
+        return oldNumPages - this.numPages();
+    }
+
+    /**
+     * Move every tuple of a page to earlier pages with free space.
+     *
+     * @return true if the page is now empty, false if its tuples did not all
+     *   fit, in which case the transaction must abort
+     */
+    private boolean emptyPage(TransactionId tid, int pageno)
+        throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(this.getId(), pageno);
+        HeapPage source = (HeapPage)Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+        HeapPage target = null;
+        try {
+            List<Tuple> tuples = new ArrayList<>();
+            for (Iterator<Tuple> it = source.iterator(); it.hasNext(); )
+                tuples.add(it.next());
+            if (tuples.isEmpty())
+                return true;
+            source.markDirty(true, tid);
+
+            int nextPageNo = 0;
+            for (Tuple t : tuples) {
+                if (target == null || !target.hasRoomFor(t)) {
+                    if (target != null) {
+                        this.releasePageWithSpace(tid, target);
+                        target = null;
+                    }
+                    target = this.pinPageWithSpace(tid, nextPageNo, pageno, t);
+                    if (target == null)
+                        return false;
+                    nextPageNo = target.getId().pageno() + 1;
+                    target.markDirty(true, tid);
+                }
+                // the tuple object may still be shared with the page's
+                // before-image, so the moved tuple is a copy
+                Tuple moved = new Tuple(this.td);
+                for (int i = 0; i < this.td.numFields(); i++)
+                    moved.setField(i, t.getField(i));
+                source.deleteTuple(t);
+                target.addTuple(moved);
+            }
+            // steer inserts away from the page until the file is truncated
+            this.freeSpace.setFree(pageno, false);
+            return true;
+        } finally {
+            if (target != null)
+                this.releasePageWithSpace(tid, target);
+            Database.getBufferPool().unpinPage(tid, pid);
+        }
+    }
+
+    /**
+     * Drop the empty pages from end onwards off the file. The pages are
+     * write locked first, so no transaction is using them; any that an insert
+     * refilled since it was emptied stay. Nothing is truncated if the file
+     * grew in the meantime.
+     */
+    private void truncate(int end) throws DbException, IOException {
+        int oldNumPages = this.numPages();
+        if (end >= oldNumPages)
+            return;
+
+        Transaction xact = new Transaction();
+        xact.start();
+        try {
+            int newNumPages = end;
+            for (int pageno = end; pageno < oldNumPages; pageno++) {
+                HeapPageId pid = new HeapPageId(this.getId(), pageno);
+                HeapPage page = (HeapPage)Database.getBufferPool().getPage(xact.getId(), pid, Permissions.READ_WRITE);
+                if (page.iterator().hasNext())
+                    newNumPages = pageno + 1;
+            }
+            synchronized (this) {
+                if (this.numPages != oldNumPages || newNumPages == oldNumPages)
+                    return;
+                // appends now start at the new end, behind the locks held here
+                this.numPages = newNumPages;
+            }
+            // the pages are empty, so nothing of theirs needs writing back
+            for (int pageno = newNumPages; pageno < oldNumPages; pageno++)
+                Database.getBufferPool().discardPage(new HeapPageId(this.getId(), pageno));
+            synchronized (this) {
+                this.segments = new MappedByteBuffer[0];
+                this.getChannel().truncate((long) newNumPages * BufferPool.PAGE_SIZE);
+            }
+            this.freeSpace.truncate(newNumPages);
+        } catch (TransactionAbortedException e) {
+            // a conflicting transaction; leave the file as it is
+        } finally {
+            xact.commit();
+        }
     }
 
     // see DbFile.java for javadocs
@@ -163,8 +619,14 @@ public class HeapFile implements DbFile {
     	RecordId rid = t.getRecordId();
         PageId pid = rid.getPageId();
 
-        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        HeapPage page = (HeapPage)Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            this.freeSpace.setFree(pid.pageno(), true);
+        } finally {
+            Database.getBufferPool().unpinPage(tid, pid);
+        }
 
         return page;
     }
@@ -172,26 +634,48 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+    	return this.iterator(tid, false);
+    }
+
+    /**
+     * A scan by a plan that only reads share locks the table once rather
+     * than each page. Other scans, such as the child of a Delete, lock the
+     * pages they read, and the LockManager escalates those locks if there
+     * are many.
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean readOnly) {
     	class HeapFileIterator extends AbstractDbFileIterator {
     	    private TransactionId tid = null;
     	    private HeapFile table = null;
+    	    private boolean lockTable = false;
     	    private int nextPageNo = 0;
+    	    private HeapPageId pinnedPid = null;
     	    private Iterator<Tuple> pageIterator = null;
+    	    private int readAheadFrom = 0;
+    	    private int readAheadWindow = MIN_READ_AHEAD;
+    	    private Future<?> readAhead = null;
     	    		
-    	    public HeapFileIterator(HeapFile table, TransactionId tid) {
+    	    public HeapFileIterator(HeapFile table, TransactionId tid, boolean lockTable) {
     	    	this.table = table;
     	    	this.tid = tid;
+    	    	this.lockTable = lockTable;
     	    }
     	    		
     	    public void open()
     	    	throws DbException, TransactionAbortedException {
-    	    	this.pageIterator = this.getNextPageIterator();
+    	    	if (this.lockTable)
+    	    		Database.getBufferPool().lockTable(this.tid, this.table.getId(), Permissions.READ_ONLY);
+    	    	this.pageIterator = Collections.emptyIterator();
     	    }
     	    		
     	    public void close() {
     	    	super.close();
+    	    	this.unpinCurrentPage();
     	    	this.pageIterator = null;
     	    	this.nextPageNo = 0;
+    	    	this.readAheadFrom = 0;
+    	    	this.readAheadWindow = MIN_READ_AHEAD;
+    	    	this.readAhead = null;
     	    }
     	    		
     	    public void rewind()
@@ -205,31 +689,65 @@ public class HeapFile implements DbFile {
     	    	if (this.pageIterator == null)
     	    		return null;
     	    			
-    	    	if (this.pageIterator.hasNext())
-    	    		return this.pageIterator.next();
-    	    	else if (this.nextPageNo < this.table.numPages()) {
-    	    		this.pageIterator = this.getNextPageIterator();
-    	    		if (this.pageIterator.hasNext())
-    	    			return this.pageIterator.next();
+    	    	while (!this.pageIterator.hasNext()) {
+    	    		this.unpinCurrentPage();
+    	    		if (this.nextPageNo >= this.table.numPages())
+    	    			return null;
+    	    		this.pageIterator = this.retrieveNextPage().iterator();
     	    	}
     	    	
-    	    	return null;
-    	    }
-    	    		
-    	    private Iterator<Tuple> getNextPageIterator()
-    	    	throws DbException, TransactionAbortedException {
-    	    	return this.retrieveNextPage().iterator();
+    	    	return this.pageIterator.next();
     	    }
     	    		
+    		/**
+    		 * Pin the page being read so the buffer pool cannot evict it while
+    		 * its tuples are still being returned.
+    		 */
     		private HeapPage retrieveNextPage() 
     			throws TransactionAbortedException, DbException {
     			HeapPageId nextPid = new HeapPageId(this.table.getId(), this.nextPageNo);
     	    	this.nextPageNo++;
-    	    	return (HeapPage)Database.getBufferPool().getPage(this.tid,  nextPid, Permissions.READ_ONLY);
+    	    	this.readAhead();
+    	    	HeapPage page = (HeapPage)Database.getBufferPool().pinPage(this.tid,  nextPid, Permissions.READ_ONLY, true);
+    	    	this.pinnedPid = nextPid;
+    	    	return page;
+    		}
+
+    		/**
+    		 * Once the scan is past its first page, keep the background worker
+    		 * a window of pages ahead of the cursor. When the cursor catches up
+    		 * with a read that has not finished, the scan is outrunning the
+    		 * disk and the window doubles.
+    		 */
+    		private void readAhead() {
+    			int numPages = this.table.numPages();
+    			if (this.nextPageNo < 2 || this.readAheadFrom >= numPages)
+    				return;
+    			if (this.readAheadFrom == 0)
+    				this.readAheadFrom = this.nextPageNo;
+    			if (this.nextPageNo < this.readAheadFrom - this.readAheadWindow / 2)
+    				return;
+    			
+    			if (this.readAhead != null && !this.readAhead.isDone()) {
+    				if (this.nextPageNo >= this.readAheadFrom)
+    					this.readAheadWindow = Math.min(this.readAheadWindow * 2, MAX_READ_AHEAD);
+    				return;
+    			}
+    			int count = Math.min(this.readAheadWindow, numPages - this.readAheadFrom);
+    			this.readAhead = Database.getBufferPool().readAhead(
+    					new HeapPageId(this.table.getId(), this.readAheadFrom), count);
+    			this.readAheadFrom += count;
+    		}
+    		
+    		private void unpinCurrentPage() {
+    			if (this.pinnedPid != null) {
+    				Database.getBufferPool().unpinPage(this.tid, this.pinnedPid);
+    				this.pinnedPid = null;
+    			}
     		}
     	}
     	
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, readOnly);
     }
     
 }
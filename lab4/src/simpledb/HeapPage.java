@@ -2,7 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
-import java.time.Instant;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -14,13 +15,39 @@ import java.time.Instant;
 public class HeapPage implements Page {
 	private HeapPageId pid = null;
 	private TupleDesc td = null;
-	private byte header[] = null;
+	private long header[] = null;
+	private int headerSize = 0;
+	private int numEmptySlots = 0;
+	private ByteBuffer data = null;
 	private Tuple tuples[] = null;
+	// views of the tuples of the page image, built the first time a slot is
+	// read and shared by every later read until the image is replaced
+	private AtomicReferenceArray<Tuple> views = null;
 	private int numSlots = 0;
 	private TransactionId dirtierTid = null;
-	private long accessTimestamp = 0;
-
-	private byte[] oldData = null;
+	private boolean changed = false;
+
+	// slotted pages only: where each record of the page image is, and the
+	// number of bytes taken by the records currently on the page
+	private boolean slotted = false;
+	private int[] recordOffsets = null;
+	private int[] recordLengths = null;
+	private int recordBytes = 0;
+
+	// compressed pages only: whether the tuples of the page image have been
+	// decoded into tuples, and the encoding statistics of its columns
+	private boolean compressed = false;
+	private volatile boolean decoded = false;
+	private PageCompression.ColumnStats[] columnStats = null;
+
+	/** Bytes at the start of a slotted page that hold its directory size */
+	static final int SLOTTED_HEADER_BYTES = 4;
+	/** Bytes per slot directory entry: an unsigned short offset and length */
+	static final int SLOT_BYTES = 4;
+	/** Bytes at the start of a compressed page that hold its slot count and size */
+	static final int COMPRESSED_HEADER_BYTES = 8;
+
+	private static final byte[] ZEROES = new byte[BufferPool.PAGE_SIZE];
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -34,34 +61,225 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Tables with variable-length fields use a slotted layout instead: a
+     * 4-byte count of slot directory entries, then the directory, with an
+     * unsigned 2-byte offset and length for each slot (offset 0 marks an
+     * empty slot), then free space, and the records packed at the end of the
+     * page. Records that are deleted give their space back at once, and the
+     * page is compacted when it is next serialized.
+     * <p>
+     * Tables of a {@link HeapFile#isCompressed compressed} HeapFile use a
+     * third layout, which stores the page column by column: a 4-byte count n
+     * of slots, the 4-byte size of the page contents, a bitmap of the slots
+     * in use as in the fixed layout, then for each field the values of slots
+     * 0 to n-1 in whichever {@link PageCompression} encoding is smallest.
+     * Empty slots below n repeat the value before them. The page is decoded
+     * the first time its tuples are read. An all-zero page is an empty page
+     * in any layout.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
      */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over the page image at the position of data, for
+     * example a slice of a memory-mapped file. The image is neither copied nor
+     * decoded up front: only the header is read, and fields are decoded from
+     * the image at fixed offsets when a tuple's fields are first accessed.
+     * Changes to the page never write into the image, so it must simply not
+     * be modified by anybody else while the page is alive.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.compressed = HeapPage.isCompressed(id.getTableId());
+        this.slotted = !this.compressed && !this.td.isFixedSize();
         this.numSlots = getNumTuples();
-        this.updateAccessTimestamp();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < (this.slotted || this.compressed ? BufferPool.PAGE_SIZE : this.headerSize + this.numSlots * this.td.getSize()))
+            throw new IOException("page image is too short");
+        this.data = data.slice();
+        this.header = new long[(this.numSlots + 63) / 64];
+        if (this.slotted) {
+            this.readSlotDirectory();
+            return;
+        }
+        if (this.compressed) {
+            this.readCompressedHeader();
+            return;
+        }
 
-        // allocate and read the header slots of this page
-        this.header = new byte[getHeaderSize()];
-        for (int i=0; i < this.header.length; i++)
-            this.header[i] = dis.readByte();
+        // read the header slots of this page into 64-bit words; header byte i
+        // holds the bits of word i / 8 from bit (i % 8) * 8 on
+        for (int i = 0; i < this.headerSize; i++)
+            this.header[i / 8] |= (this.data.get(i) & 0xFFL) << ((i % 8) * 8);
+        // bits past the last slot mean nothing
+        if (this.numSlots % 64 != 0)
+            this.header[this.header.length - 1] &= (1L << (this.numSlots % 64)) - 1;
+
+        this.numEmptySlots = this.numSlots;
+        for (long word : this.header)
+            this.numEmptySlots -= Long.bitCount(word);
+    }
 
-        try {
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++) {
-                tuples[i] = readNextTuple(dis, i);
+    /**
+     * Read the slot directory of a slotted page image into the header and the
+     * record offsets and lengths.
+     */
+    private void readSlotDirectory() throws IOException {
+        int entries = this.data.getInt(0);
+        if (entries < 0 || entries > this.numSlots)
+            throw new IOException("bad slot directory size " + entries);
+        Arrays.fill(this.header, 0);
+        this.recordOffsets = new int[entries];
+        this.recordLengths = new int[entries];
+        this.recordBytes = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = SLOTTED_HEADER_BYTES + i * SLOT_BYTES;
+            int offset = this.data.getShort(entry) & 0xFFFF;
+            int length = this.data.getShort(entry + 2) & 0xFFFF;
+            if (offset == 0)
+                continue;
+            if (offset + length > BufferPool.PAGE_SIZE)
+                throw new IOException("bad slot directory entry " + i);
+            this.recordOffsets[i] = offset;
+            this.recordLengths[i] = length;
+            this.recordBytes += length;
+            this.header[i >>> 6] |= 1L << i;
+        }
+        this.numEmptySlots = this.numSlots;
+        for (long word : this.header)
+            this.numEmptySlots -= Long.bitCount(word);
+    }
+
+    /**
+     * @return true if the pages of the given table use the compressed layout
+     */
+    private static boolean isCompressed(int tableId) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        return file instanceof HeapFile && ((HeapFile) file).isCompressed();
+    }
+
+    /**
+     * Read the slot bitmap of a compressed page image into the header. The
+     * columns are left encoded until a tuple is needed.
+     */
+    private void readCompressedHeader() throws IOException {
+        int entries = this.data.getInt(0);
+        if (entries < 0 || entries > this.numSlots)
+            throw new IOException("bad compressed slot count " + entries);
+        Arrays.fill(this.header, 0);
+        for (int i = 0; i < (entries + 7) / 8; i++)
+            this.header[i / 8] |= (this.data.get(COMPRESSED_HEADER_BYTES + i) & 0xFFL) << ((i % 8) * 8);
+        if (entries % 64 != 0)
+            this.header[entries / 64] &= (1L << (entries % 64)) - 1;
+        this.numEmptySlots = this.numSlots;
+        for (long word : this.header)
+            this.numEmptySlots -= Long.bitCount(word);
+        this.decoded = false;
+        this.columnStats = null;
+    }
+
+    /**
+     * Decode the tuples of a compressed page image into tuples, once. Readers
+     * share the page, so this is the one place a page read changes it.
+     */
+    private void ensureDecoded() {
+        if (this.decoded)
+            return;
+        synchronized (this) {
+            if (this.decoded)
+                return;
+            int entries = this.data.getInt(0);
+            Tuple[] tuples = this.tuples != null ? this.tuples : new Tuple[this.numSlots];
+            ByteBuffer image = this.data.duplicate();
+            image.clear();
+            image.position(COMPRESSED_HEADER_BYTES + (entries + 7) / 8);
+            Field[][] columns = new Field[this.td.numFields()][];
+            if (entries > 0) {
+                for (int j = 0; j < columns.length; j++)
+                    columns[j] = PageCompression.decode(this.td.getType(j), image, entries);
             }
-        } catch(NoSuchElementException e) {
-            e.printStackTrace();
+            for (int slot = this.nextSlot(0, true); slot < entries; slot = this.nextSlot(slot + 1, true)) {
+                if (tuples[slot] != null)
+                    continue;
+                Tuple t = new Tuple(this.td);
+                for (int j = 0; j < columns.length; j++)
+                    t.setField(j, columns[j][slot]);
+                t.setRecordId(new RecordId(this.pid, slot));
+                tuples[slot] = t;
+            }
+            this.tuples = tuples;
+            this.decoded = true;
         }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /**
+     * @return the values of field j of slots 0 to n-1 of a compressed page,
+     *         as they are encoded
+     */
+    private Field[] getColumnValues(int j, int n) {
+        Field[] values = new Field[n];
+        Field previous = null;
+        for (int slot = 0; slot < n; slot++) {
+            if (this.getSlot(slot))
+                values[slot] = this.tuples[slot].getField(j);
+            else
+                values[slot] = previous;
+            previous = values[slot];
+        }
+        // leading empty slots take the first value
+        int first = 0;
+        while (first < n && values[first] == null)
+            first++;
+        for (int slot = 0; slot < first; slot++)
+            values[slot] = values[first];
+        return values;
+    }
+
+    /**
+     * @return the encoding statistics of each field of slots 0 to n-1 of a
+     *         compressed page
+     */
+    private PageCompression.ColumnStats[] getColumnStats(int n) {
+        PageCompression.ColumnStats[] stats = new PageCompression.ColumnStats[this.td.numFields()];
+        for (int j = 0; j < stats.length; j++) {
+            stats[j] = new PageCompression.ColumnStats(this.td.getType(j));
+            for (Field f : this.getColumnValues(j, n))
+                stats[j].add(f);
+        }
+        return stats;
+    }
+
+    /**
+     * @return the bytes a compressed page with n slots and the given column
+     *         statistics takes
+     */
+    private static int getCompressedSize(int n, PageCompression.ColumnStats[] stats) {
+        int size = COMPRESSED_HEADER_BYTES + (n + 7) / 8;
+        if (n > 0) {
+            for (PageCompression.ColumnStats column : stats)
+                size += column.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes the contents of a compressed page take
+     */
+    private int getCompressedSize() {
+        if (!this.changed)
+            return Math.max(this.data.getInt(4), COMPRESSED_HEADER_BYTES);
+        this.ensureDecoded();
+        int n = this.directorySize();
+        if (this.columnStats == null)
+            this.columnStats = this.getColumnStats(n);
+        return HeapPage.getCompressedSize(n, this.columnStats);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -69,6 +287,12 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {
         // some code goes here
+        if (this.slotted)
+            return (BufferPool.PAGE_SIZE - SLOTTED_HEADER_BYTES) / (SLOT_BYTES + this.td.getMinSize());
+        // a page full of repeated values holds many more tuples than slots
+        // would; a slot per byte keeps the page's arrays at a sensible size
+        if (this.compressed)
+            return BufferPool.PAGE_SIZE;
         return (int)Math.floor((BufferPool.PAGE_SIZE*8.0) / (this.td.getSize() * 8.0 + 1.0));
     }
 
@@ -82,10 +306,13 @@ public class HeapPage implements Page {
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery.
+        <p>
+        Changes never touch the page image, so the image itself is the
+        before-image and pages that are only read never pay for a copy. */
     public HeapPage getBeforeImage() {
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid,data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -94,8 +321,28 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents the new before-image, by serializing them
+     * into a fresh page image that replaces the old one. Does nothing if no
+     * tuple has been added or deleted since the image was taken.
+     */
     public void setBeforeImage() {
-    	this.oldData = getPageData().clone();
+    	if (!this.changed)
+    		return;
+    	this.data = ByteBuffer.wrap(getPageData());
+    	this.views = null;
+    	this.changed = false;
+    	// the decoded tuples are still the contents of the new image
+    	if (this.compressed)
+    		return;
+    	this.tuples = null;
+    	if (this.slotted) {
+    		try {
+    			this.readSlotDirectory();
+    		} catch (IOException e) {
+    			throw new RuntimeException(e);
+    		}
+    	}
     }
 
     /**
@@ -106,36 +353,29 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in an occupied slot: either one added since the page
+     * was read, or a view that decodes its fields from the page image.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!this.getSlot(slotId)) {
-            for (int i = 0; i < this.td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple getTuple(int slotId) {
+        if (this.compressed)
+            this.ensureDecoded();
+        if (this.tuples != null && this.tuples[slotId] != null)
+            return this.tuples[slotId];
+
+        AtomicReferenceArray<Tuple> views = this.views;
+        if (views == null) {
+            views = new AtomicReferenceArray<Tuple>(this.numSlots);
+            this.views = views;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(this.pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < this.td.numFields(); j++) {
-                Field f = this.td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        Tuple t = views.get(slotId);
+        if (t == null) {
+            int offset = this.slotted ? this.recordOffsets[slotId] : this.headerSize + slotId * this.td.getSize();
+            t = new Tuple(this.td, this.data, offset);
+            t.setRecordId(new RecordId(this.pid, slotId));
+            // concurrent readers of the page all get the same view
+            if (!views.compareAndSet(slotId, null, t))
+                t = views.get(slotId);
         }
-
         return t;
     }
 
@@ -151,64 +391,172 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+        this.writePageData(ByteBuffer.wrap(pageData));
+        return pageData;
+    }
 
-        // create the header of the page
-        for (int i = 0; i < this.header.length; i++) {
-            try {
-                dos.writeByte(this.header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    /**
+     * Serialize this page into buf at its current position, in the format
+     * returned by {@link #getPageData}, and advance the position by
+     * BufferPool.PAGE_SIZE bytes. Used to write the page to disk through a
+     * reusable buffer without building an intermediate array.
+     * <p>
+     * Runs of unchanged tuples are copied from the page image and runs of
+     * empty slots are zero-filled in bulk; only tuples added since the page was
+     * read are serialized field by field.
+     *
+     * @param buf the buffer to write to; needs BufferPool.PAGE_SIZE bytes remaining
+     */
+    public void writePageData(ByteBuffer buf) {
+        if (this.slotted) {
+            this.writeSlottedPageData(buf);
+            return;
         }
+        if (this.compressed) {
+            this.writeCompressedPageData(buf);
+            return;
+        }
+        int tupleSize = this.td.getSize();
+        int slotsStart = this.headerSize;
 
-        // create the tuples
-        for (int i = 0; i < this.tuples.length; i++) {
-
-            // empty slot
-            if (!getSlot(i)) {
-                for (int j = 0; j < this.td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // create the header of the page
+        for (int i = 0; i < this.headerSize; i++)
+            buf.put((byte) (this.header[i / 8] >>> ((i % 8) * 8)));
 
-                }
+        // create the tuples
+        ByteBuffer image = this.data.duplicate();
+        int slot = 0;
+        while (slot < this.numSlots) {
+            // non-empty slot added since the page was read
+            if (getSlot(slot) && this.tuples != null && this.tuples[slot] != null) {
+                for (int j = 0; j < this.td.numFields(); j++)
+                    this.tuples[slot].getField(j).serialize(buf);
+                slot++;
                 continue;
             }
 
-            // non-empty slot
-            for (int j = 0; j < this.td.numFields(); j++) {
-                Field f = this.tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+            // find the run of slots that are all empty or all unchanged
+            boolean used = getSlot(slot);
+            int runEnd = used ? this.nextSlot(slot, false) : this.nextSlot(slot, true);
+            if (used && this.tuples != null) {
+                for (int i = slot + 1; i < runEnd; i++) {
+                    if (this.tuples[i] != null) {
+                        runEnd = i;
+                        break;
+                    }
                 }
             }
+
+            int runBytes = (runEnd - slot) * tupleSize;
+            if (used) {
+                image.limit(slotsStart + runEnd * tupleSize);
+                image.position(slotsStart + slot * tupleSize);
+                buf.put(image);
+            } else {
+                HeapPage.putZeroes(buf, runBytes);
+            }
+            slot = runEnd;
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        HeapPage.putZeroes(buf, BufferPool.PAGE_SIZE - (slotsStart + tupleSize * this.numSlots));
+    }
+
+    /**
+     * Serialize a slotted page, packing the records that are still on it
+     * against the end of the page in slot order.
+     */
+    private void writeSlottedPageData(ByteBuffer buf) {
+        int start = buf.position();
+        int entries = this.directorySize();
+        int offset = BufferPool.PAGE_SIZE - this.recordBytes;
+
+        buf.putInt(entries);
+        for (int slot = 0; slot < entries; slot++) {
+            int length = this.getRecordLength(slot);
+            buf.putShort((short) (length == 0 ? 0 : offset));
+            buf.putShort((short) length);
+            offset += length;
+        }
+        HeapPage.putZeroes(buf, BufferPool.PAGE_SIZE - this.recordBytes - (buf.position() - start));
+
+        ByteBuffer image = this.data.duplicate();
+        for (int slot = this.nextSlot(0, true); slot < entries; slot = this.nextSlot(slot + 1, true)) {
+            if (this.tuples != null && this.tuples[slot] != null) {
+                for (int j = 0; j < this.td.numFields(); j++)
+                    this.td.getType(j).serialize(this.tuples[slot].getField(j), buf);
+            } else {
+                image.clear();
+                image.position(this.recordOffsets[slot]);
+                image.limit(this.recordOffsets[slot] + this.recordLengths[slot]);
+                buf.put(image);
+            }
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Serialize a compressed page, encoding each column afresh. An unchanged
+     * page is copied from its image.
+     */
+    private void writeCompressedPageData(ByteBuffer buf) {
+        if (!this.changed) {
+            ByteBuffer image = this.data.duplicate();
+            image.clear();
+            image.limit(BufferPool.PAGE_SIZE);
+            buf.put(image);
+            return;
         }
+        this.ensureDecoded();
+        int start = buf.position();
+        int entries = this.directorySize();
+        buf.putInt(entries);
+        buf.putInt(0);
+        for (int i = 0; i < (entries + 7) / 8; i++)
+            buf.put((byte) (this.header[i / 8] >>> ((i % 8) * 8)));
+        if (entries > 0) {
+            for (int j = 0; j < this.td.numFields(); j++)
+                PageCompression.encode(this.td.getType(j), this.getColumnValues(j, entries), buf);
+        }
+        int size = buf.position() - start;
+        buf.putInt(start + 4, size);
+        HeapPage.putZeroes(buf, BufferPool.PAGE_SIZE - size);
+    }
+
+    /**
+     * @return the number of bytes the tuple in a slot of a slotted page takes,
+     *         or 0 if the slot is empty
+     */
+    private int getRecordLength(int slot) {
+        if (!this.getSlot(slot))
+            return 0;
+        if (this.tuples != null && this.tuples[slot] != null)
+            return this.td.getSize(this.tuples[slot]);
+        return this.recordLengths[slot];
+    }
+
+    /**
+     * @return the number of slot directory entries a slotted page needs: one
+     *         past the last slot in use
+     */
+    private int directorySize() {
+        for (int w = this.header.length - 1; w >= 0; w--) {
+            if (this.header[w] != 0)
+                return w * 64 + 64 - Long.numberOfLeadingZeros(this.header[w]);
+        }
+        return 0;
+    }
 
-        return baos.toByteArray();
+    /**
+     * @return the bytes of a slotted page not taken by records or the slot
+     *         directory
+     */
+    private int getFreeBytes() {
+        return BufferPool.PAGE_SIZE - SLOTTED_HEADER_BYTES - this.directorySize() * SLOT_BYTES - this.recordBytes;
+    }
+
+    private static void putZeroes(ByteBuffer buf, int count) {
+        buf.put(ZEROES, 0, count);
     }
 
     /**
@@ -244,7 +592,18 @@ public class HeapPage implements Page {
         if (!this.getSlot(rid.tupleno()))
         	throw new DbException("Tuple slot is already empty");
 
+        if (this.compressed) {
+        	this.ensureDecoded();
+        	this.columnStats = null;
+        }
+        if (this.slotted)
+        	this.recordBytes -= this.getRecordLength(rid.tupleno());
         this.setSlot(rid.tupleno(), false);
+        this.changed = true;
+        if (this.tuples != null)
+            this.tuples[rid.tupleno()] = null;
+        if (this.views != null)
+            this.views.set(rid.tupleno(), null);
         t.setRecordId(null);
     }
 
@@ -258,20 +617,29 @@ public class HeapPage implements Page {
     public void addTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-    	if (this.getNumEmptySlots() == 0)
-    		throw new DbException("The page is full");
         if (!t.getTupleDesc().equals(this.td))
             throw new DbException("The tuple's descriptor does match the page's tuple descriptor");
+    	if (!this.hasRoomFor(t))
+    		throw new DbException("The page is full");
 
         // find an empty slot
-        int emptySlotIndex = -1;
-        for (int i = 0; i < this.numSlots; i++) {
-            if (!this.getSlot(i)) {
-            	emptySlotIndex = i;
-                break;
+        int emptySlotIndex = this.nextSlot(0, false);
+        if (this.tuples == null)
+            this.tuples = new Tuple[this.numSlots];
+        if (this.slotted)
+            this.recordBytes += this.td.getSize(t);
+        // appending to a compressed page extends its column statistics; a
+        // tuple that fills a gap changes values in the middle of the columns
+        if (this.compressed && this.columnStats != null) {
+            if (emptySlotIndex == this.directorySize()) {
+                for (int j = 0; j < this.columnStats.length; j++)
+                    this.columnStats[j].add(t.getField(j));
+            } else {
+                this.fillGap(emptySlotIndex, t, true);
             }
         }
         this.setSlot(emptySlotIndex, true);
+        this.changed = true;
         t.setRecordId(new RecordId(this.pid, emptySlotIndex));
         this.tuples[emptySlotIndex] = t;
     }
@@ -284,12 +652,27 @@ public class HeapPage implements Page {
         // some code goes here
     	// not necessary for lab1
     	if (dirty) {
+    		// an image that is not ours (a file mapping) changes when this page
+    		// is written back; keep a private copy before it can stop being the
+    		// before-image
+    		if (!this.data.hasArray()) {
+    			this.data = ByteBuffer.wrap(this.getImageCopy());
+    			this.views = null;
+    		}
             this.dirtierTid = tid;
         } else {
             this.dirtierTid = null;
         }
     }
 
+    private byte[] getImageCopy() {
+    	byte[] image = new byte[this.data.capacity()];
+    	ByteBuffer source = this.data.duplicate();
+    	source.clear();
+    	source.get(image);
+    	return image;
+    }
+
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
@@ -300,16 +683,94 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. On a slotted page this
+     * is the number of the smallest possible tuples that still fit.
      */
     public int getNumEmptySlots() {
         // some code goes here
-    	int result = 0;
-    	for (int i = 0; i < this.numSlots; i++) {
-    		if (!this.getSlot(i))
-    			result++;
-    	}
-        return result;
+        if (this.slotted)
+            return Math.min(this.numEmptySlots, Math.max(this.getFreeBytes(), 0) / (SLOT_BYTES + this.td.getMinSize()));
+        // on a compressed page, the number of tuples that fit uncompressed
+        if (this.compressed)
+            return Math.min(this.numEmptySlots, (BufferPool.PAGE_SIZE - this.getCompressedSize()) * 8 / (this.td.getSize() * 8 + 1));
+        return this.numEmptySlots;
+    }
+
+    /**
+     * Returns true if t would fit on this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (this.compressed)
+            return this.hasCompressedRoomFor(t);
+        if (!this.slotted)
+            return this.numEmptySlots > 0;
+        int slot = this.nextSlot(0, false);
+        if (slot == this.numSlots)
+            return false;
+        int needed = t.getTupleDesc().getSize(t) + (slot >= this.directorySize() ? SLOT_BYTES : 0);
+        return needed <= this.getFreeBytes();
+    }
+
+    /**
+     * Returns true if t would fit on this compressed page once every column
+     * is encoded again.
+     */
+    private boolean hasCompressedRoomFor(Tuple t) {
+        int slot = this.nextSlot(0, false);
+        if (slot == this.numSlots)
+            return false;
+        this.ensureDecoded();
+        int entries = this.directorySize();
+        if (this.columnStats == null)
+            this.columnStats = this.getColumnStats(entries);
+        if (slot < entries) {
+            // measure the page with t in the gap, then take it out again
+            this.fillGap(slot, t, true);
+            boolean fits = HeapPage.getCompressedSize(entries, this.columnStats) <= BufferPool.PAGE_SIZE;
+            this.fillGap(slot, t, false);
+            return fits;
+        }
+
+        int size = COMPRESSED_HEADER_BYTES + (slot + 8) / 8;
+        for (int j = 0; j < this.columnStats.length; j++)
+            size += this.columnStats[j].sizeWith(t.getField(j));
+        return size <= BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Update the cached column statistics of a compressed page for t filling,
+     * or no longer filling, an empty slot before the last used one. An empty
+     * slot is encoded as a copy of the tuple before it, or of the first tuple
+     * for leading empty slots, so the run of empty slots the slot starts
+     * changes with it.
+     */
+    private void fillGap(int slot, Tuple t, boolean fill) {
+        int previous = this.previousUsedSlot(slot);
+        int next = this.nextSlot(slot + 1, true);
+        int start = previous < 0 ? 0 : slot;
+        Tuple gap = this.tuples[previous < 0 ? next : previous];
+        for (int j = 0; j < this.columnStats.length; j++) {
+            Field before = previous < 0 ? null : gap.getField(j);
+            Field after = this.tuples[next].getField(j);
+            if (fill)
+                this.columnStats[j].replace(gap.getField(j), t.getField(j), next - start, before, after);
+            else
+                this.columnStats[j].replace(t.getField(j), gap.getField(j), next - start, before, after);
+        }
+    }
+
+    /**
+     * @return the last used slot before the given one, or -1 if there is none
+     */
+    private int previousUsedSlot(int before) {
+        int wordIndex = before >>> 6;
+        long word = this.header[wordIndex] & ((1L << (before & 63)) - 1);
+        while (word == 0) {
+            if (--wordIndex < 0)
+                return -1;
+            word = this.header[wordIndex];
+        }
+        return wordIndex * 64 + 63 - Long.numberOfLeadingZeros(word);
     }
 
     /**
@@ -317,24 +778,45 @@ public class HeapPage implements Page {
      */
     public boolean getSlot(int i) {
         // some code goes here
-    	int byteIndex = i / 8;
-    	int bitIndex = i % 8;
-    	if (byteIndex < this.header.length)
-    		return (this.header[byteIndex] & (1 << bitIndex)) > 0;
+    	if (i >= 0 && i < this.numSlots)
+    		return (this.header[i >>> 6] & (1L << i)) != 0;
     	else
     		return false;
     }
 
+    /**
+     * Return the first slot at or after from that is filled (or empty, if used
+     * is false), skipping whole header words at a time.
+     *
+     * @return the slot found, or numSlots if there is none
+     */
+    private int nextSlot(int from, boolean used) {
+    	if (from >= this.numSlots)
+    		return this.numSlots;
+    	int wordIndex = from >>> 6;
+    	long word = (used ? this.header[wordIndex] : ~this.header[wordIndex]) & (-1L << from);
+    	while (word == 0) {
+    		if (++wordIndex == this.header.length)
+    			return this.numSlots;
+    		word = used ? this.header[wordIndex] : ~this.header[wordIndex];
+    	}
+    	return Math.min(wordIndex * 64 + Long.numberOfTrailingZeros(word), this.numSlots);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void setSlot(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+    	if (getSlot(i) == value)
+    		return;
     	if (value) {
-            this.header[i / 8] |= (1 << (i % 8));
+            this.header[i >>> 6] |= (1L << i);
+            this.numEmptySlots--;
         } else {
-            this.header[i / 8] &= ~(1 << (i % 8));
+            this.header[i >>> 6] &= ~(1L << i);
+            this.numEmptySlots++;
         }
     }
 
@@ -344,21 +826,25 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-    	ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-    	for (int i = 0; i < this.numSlots; i++) {
-    		if (this.getSlot(i))
-    			tuples.add(this.tuples[i]);
-    	}
-    	return tuples.iterator();
-    }
-    
-    public void updateAccessTimestamp() {
-    	this.accessTimestamp = Instant.now().toEpochMilli();
-    }
-    
-    public long getAccessTimestamp() {
-    	return this.accessTimestamp;
+    	return new Iterator<Tuple>() {
+    		private int nextSlot = HeapPage.this.nextSlot(0, true);
+
+    		public boolean hasNext() {
+    			return this.nextSlot < numSlots;
+    		}
+
+    		public Tuple next() {
+    			if (!this.hasNext())
+    				throw new NoSuchElementException();
+    			Tuple t = getTuple(this.nextSlot);
+    			this.nextSlot = HeapPage.this.nextSlot(this.nextSlot + 1, true);
+    			return t;
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
     }
 
 }
-
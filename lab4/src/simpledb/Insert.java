@@ -1,11 +1,15 @@
 package simpledb;
 import java.io.*;
+import java.util.*;
 
 /**
  * Inserts tuples read from the child operator into
  * the tableid specified in the constructor
  */
 public class Insert extends AbstractDbIterator {
+    /** Number of child tuples handed to the buffer pool at a time */
+    static final int BATCH_SIZE = 4096;
+
 	private TransactionId tid = null;
     private DbIterator child = null;
     private int tableid = 0;
@@ -67,7 +71,7 @@ public class Insert extends AbstractDbIterator {
      * @return A 1-field tuple containing the number of inserted records, or
     * null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple readNext()
             throws TransactionAbortedException, DbException {
@@ -77,13 +81,17 @@ public class Insert extends AbstractDbIterator {
         int insertCount = 0;
         hasBeenCalled = true;
 
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
         while (this.child.hasNext()) {
-            Tuple tuple = this.child.next();
-            insertCount++;
-            try {
-                Database.getBufferPool().insertTuple(this.tid, this.tableid, tuple);
-            } catch (IOException e) {
-                throw new DbException("Insert failed");
+            batch.add(this.child.next());
+            if (batch.size() == BATCH_SIZE || !this.child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(this.tid, this.tableid, batch.iterator());
+                } catch (IOException e) {
+                    throw new DbException("Insert failed");
+                }
+                insertCount += batch.size();
+                batch.clear();
             }
         }
 
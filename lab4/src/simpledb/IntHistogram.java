@@ -1,10 +1,12 @@
 package simpledb;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+	private static final long serialVersionUID = 1L;
 	
 	private int[] buckets = null;
 	private int min = 0;
@@ -46,6 +48,38 @@ public class IntHistogram {
     	this.buckets[this.indexOfBucket(v)]++;
     }
 
+    /**
+     * Add all of the values counted by another histogram to this one. Values
+     * are assumed to be spread evenly within each of other's buckets, and are
+     * split between this histogram's buckets in proportion to the overlap.
+     * Every value counted by other must lie within this histogram's range.
+     *
+     * @param other the histogram to merge into this one
+     */
+    public void addHistogram(IntHistogram other) {
+    	for (int i = 0; i < other.buckets.length; i++) {
+    		int count = other.buckets[i];
+    		if (count == 0)
+    			continue;
+    		long low = other.bucketMinByIndex(i);
+    		long high = Math.min(other.bucketMaxByIndex(i), other.max);
+    		long width = high - low + 1;
+
+    		// hand out the count by cumulative overlap, so rounding never
+    		// loses or invents a value
+    		long covered = 0;
+    		int assigned = 0;
+    		for (int j = this.indexOfBucket((int) low); j <= this.indexOfBucket((int) high); j++) {
+    			long overlap = Math.min(high, this.bucketMaxByIndex(j)) - Math.max(low, this.bucketMinByIndex(j)) + 1;
+    			covered += overlap;
+    			int share = (int) (count * covered / width) - assigned;
+    			this.buckets[j] += share;
+    			assigned += share;
+    		}
+    	}
+    	this.numValues += other.numValues;
+    }
+
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
      * 
@@ -182,6 +182,9 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        // a single table query has nothing to order
+        if (joins.isEmpty())
+        	return joins;
         PlanCache planCache = new PlanCache();
         
         for (int i = 1; i <= joins.size(); i++) {
@@ -1,104 +1,226 @@
 package simpledb;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * A lock on one page or one table. Pages are locked SHARED or EXCLUSIVE;
+ * tables can also be locked in the intention modes that announce page locks
+ * below them. Requests wait for as long as they need to; deadlocks are found
+ * in the LockManager's wait-for graph, which reads the owners and waiters of
+ * each lock without taking its latch.
+ * <p>
+ * A lock is only in the LockManager's lock table while it is owned or
+ * awaited. Once it is neither, it is pooled to lock another page later.
+ */
 public class Lock {
-	private final Set<TransactionId> owners = new HashSet<>();
-    private final ReentrantLock lock = new ReentrantLock(true);
-    private final Condition waiters = lock.newCondition();
-    private int sharedLockCount = 0;
-    private LockMode mode = null;
-    private long maxTime = 100;
-    private TimeUnit maxTimeUnit = TimeUnit.MILLISECONDS;
-	
+	private final Map<TransactionId, LockMode> owners = new ConcurrentHashMap<>();
+	private final Map<TransactionId, LockMode> waiting = new ConcurrentHashMap<>();
+	private final ReentrantLock latch = new ReentrantLock(true);
+	private final Condition waiters = latch.newCondition();
+	/**
+	 * Transactions owning or waiting for this lock; the lock leaves the lock
+	 * table when this drops to zero. Guarded by the lock table entry.
+	 */
+	int users = 0;
+
+	/** How often a waiting request looks for a deadlock again. */
+	private static final long DETECTION_INTERVAL_MILLIS = 200;
+
+	/**
+	 * The lock modes, weakest first. Intention modes are only taken on
+	 * tables: INTENTION_SHARED before share locking pages of the table,
+	 * INTENTION_EXCLUSIVE before exclusively locking them, and
+	 * SHARED_INTENTION_EXCLUSIVE by a transaction that reads the whole table
+	 * and writes some of its pages.
+	 */
 	public enum LockMode {
-        SHARED,
-        EXCLUSIVE
-    }
-	
+		INTENTION_SHARED,
+		INTENTION_EXCLUSIVE,
+		SHARED,
+		SHARED_INTENTION_EXCLUSIVE,
+		EXCLUSIVE;
+
+		private static final boolean[][] COMPATIBLE = {
+			// IS     IX     S      SIX    X
+			{ true,  true,  true,  true,  false }, // IS
+			{ true,  true,  false, false, false }, // IX
+			{ true,  false, true,  false, false }, // S
+			{ true,  false, false, false, false }, // SIX
+			{ false, false, false, false, false }, // X
+		};
+
+		/** @return true if two transactions can hold this mode and other at once */
+		public boolean isCompatibleWith(LockMode other) {
+			return COMPATIBLE[this.ordinal()][other.ordinal()];
+		}
+
+		/** @return true if holding this mode grants everything other does */
+		public boolean covers(LockMode other) {
+			return this == other || this == EXCLUSIVE || other == INTENTION_SHARED
+				|| (this == SHARED_INTENTION_EXCLUSIVE && (other == INTENTION_EXCLUSIVE || other == SHARED));
+		}
+
+		/** @return the weakest mode that covers both this and other */
+		public LockMode join(LockMode other) {
+			if (this.covers(other))
+				return this;
+			if (other.covers(this))
+				return other;
+			// only INTENTION_EXCLUSIVE and SHARED cover neither
+			return SHARED_INTENTION_EXCLUSIVE;
+		}
+
+		/**
+		 * Reading modes queue behind waiting requests they conflict with, so
+		 * that a stream of readers cannot starve a writer.
+		 */
+		boolean isRead() {
+			return this == INTENTION_SHARED || this == SHARED;
+		}
+	}
+
 	Lock() {
-		
+
 	}
-	
-	public void acquire(TransactionId tid, LockMode mode) throws InterruptedException {
-		if (mode == LockMode.SHARED) {
-			this.acquireSharedLock(tid);
-		} else if (mode == LockMode.EXCLUSIVE) {
-			this.acquireExclusiveLock(tid);
-		} else {
-			throw new RuntimeException("Invalid LockMode");
+
+	/**
+	 * Acquire the lock in the given mode, converting the mode tid already
+	 * holds to one covering both, and wait until it can be granted. A
+	 * waiting request looks for a deadlock through itself when it starts
+	 * waiting and again every detection interval.
+	 *
+	 * @return the mode tid now holds the lock in
+	 * @throws DeadlockException if tid was chosen to break a deadlock
+	 */
+	public LockMode acquire(TransactionId tid, LockMode mode, LockManager manager)
+		throws DeadlockException, InterruptedException {
+		this.latch.lock();
+		boolean waiting = false;
+		try {
+			LockMode held = this.owners.get(tid);
+			if (held != null)
+				mode = held.join(mode);
+			boolean detect = true;
+			while (!this.isGrantable(tid, mode)) {
+				if (!waiting) {
+					this.waiting.put(tid, mode);
+					manager.startWaiting(tid, this);
+					waiting = true;
+				}
+				if (detect) {
+					// breaking a deadlock may mean waking a request waiting
+					// on another lock, so the latch is not held meanwhile
+					this.latch.unlock();
+					try {
+						manager.detectDeadlock(tid);
+					} finally {
+						this.latch.lock();
+					}
+					if (this.isGrantable(tid, mode))
+						break;
+				}
+				if (manager.isVictim(tid))
+					throw new DeadlockException("transaction " + tid.getId() + " chosen as deadlock victim");
+				detect = !this.waiters.await(DETECTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+
+			this.owners.put(tid, mode);
+			return mode;
+		} finally {
+			if (waiting) {
+				manager.stopWaiting(tid);
+				// reading requests may have queued behind this one
+				this.waiting.remove(tid);
+				this.waiters.signalAll();
+			}
+			this.latch.unlock();
 		}
 	}
-	
+
+	/**
+	 * Acquire or convert the lock like {@link #acquire}, but only if that
+	 * needs no wait.
+	 *
+	 * @return the mode tid now holds the lock in, or null if it would have
+	 *   had to wait
+	 */
+	LockMode tryAcquire(TransactionId tid, LockMode mode) {
+		this.latch.lock();
+		try {
+			LockMode held = this.owners.get(tid);
+			if (held != null)
+				mode = held.join(mode);
+			if (!this.isGrantable(tid, mode))
+				return null;
+			this.owners.put(tid, mode);
+			return mode;
+		} finally {
+			this.latch.unlock();
+		}
+	}
+
 	public void release(TransactionId tid) {
-		this.lock.lock();
+		this.latch.lock();
 		try {
-			if (this.getLockMode() == LockMode.SHARED && this.sharedLockCount > 0) {
-				this.sharedLockCount--;
-				if (this.sharedLockCount == 0)
-					this.mode = null;
-			} else {
-				this.mode = null;
-			}
 			this.owners.remove(tid);
 			this.waiters.signalAll();
 		} finally {
-			this.lock.unlock();
-		}
-	}
-	
-	public void upgradeLock(TransactionId tid) throws InterruptedException {
-		this.lock.lock();
-		
-		if (this.owners.contains(tid) && this.getLockMode() == LockMode.EXCLUSIVE)
-			return;
-			
-		while (this.getLockMode() == LockMode.EXCLUSIVE || this.sharedLockCount > 1) {
-			if (!waiters.await(this.maxTime, this.maxTimeUnit)) {
-				this.lock.unlock();
-				throw new InterruptedException();
-			}
+			this.latch.unlock();
 		}
-		this.sharedLockCount = 0;
-		this.mode = LockMode.EXCLUSIVE;
-		this.lock.unlock();
 	}
-	
-	public LockMode getLockMode() {
-		return this.mode;
+
+	/**
+	 * A request is granted once it is compatible with every other owner. A
+	 * new reading request also waits for the waiting requests it conflicts
+	 * with; conversions by owners do not, or they could wait for requests
+	 * waiting on themselves.
+	 */
+	private boolean isGrantable(TransactionId tid, LockMode mode) {
+		for (Map.Entry<TransactionId, LockMode> owner : this.owners.entrySet())
+			if (!owner.getKey().equals(tid) && !mode.isCompatibleWith(owner.getValue()))
+				return false;
+		if (mode.isRead() && !this.owners.containsKey(tid))
+			for (Map.Entry<TransactionId, LockMode> waiter : this.waiting.entrySet())
+				if (!waiter.getKey().equals(tid) && !waiter.getValue().isRead() && !mode.isCompatibleWith(waiter.getValue()))
+					return false;
+		return true;
 	}
-	
-	private void acquireSharedLock(TransactionId tid) throws InterruptedException {
-		this.lock.lock();
-		
-		while (this.getLockMode() == LockMode.EXCLUSIVE || this.lock.hasWaiters(waiters)) {
-			if (!waiters.await(this.maxTime, this.maxTimeUnit)) {
-				lock.unlock();
-				throw new InterruptedException();
-			}
-		}
-		this.sharedLockCount++;
-		this.owners.add(tid);
-		this.mode = LockMode.SHARED;
-		this.lock.unlock();
+
+	/**
+	 * @return the transactions a request of tid waiting on this lock waits
+	 *   for: the owners it conflicts with, and for a new reading request the
+	 *   waiting requests it queues behind
+	 */
+	Set<TransactionId> getBlockers(TransactionId tid) {
+		Set<TransactionId> blockers = new HashSet<>();
+		LockMode mode = this.waiting.get(tid);
+		if (mode == null)
+			return blockers;
+		for (Map.Entry<TransactionId, LockMode> owner : this.owners.entrySet())
+			if (!mode.isCompatibleWith(owner.getValue()))
+				blockers.add(owner.getKey());
+		if (mode.isRead() && !this.owners.containsKey(tid))
+			for (Map.Entry<TransactionId, LockMode> waiter : this.waiting.entrySet())
+				if (!waiter.getValue().isRead() && !mode.isCompatibleWith(waiter.getValue()))
+					blockers.add(waiter.getKey());
+		blockers.remove(tid);
+		return blockers;
 	}
-	
-	private void acquireExclusiveLock(TransactionId tid) throws InterruptedException {
-		this.lock.lock();
-		
-		while (this.getLockMode() == LockMode.EXCLUSIVE || this.getLockMode() == LockMode.SHARED) {
-			if (!waiters.await(this.maxTime, this.maxTimeUnit)) {
-				this.lock.unlock();
-				throw new InterruptedException();
-			}
+
+	/** Wake the requests waiting on this lock to check whether they were chosen as victims. */
+	void wakeWaiters() {
+		this.latch.lock();
+		try {
+			this.waiters.signalAll();
+		} finally {
+			this.latch.unlock();
 		}
-		this.owners.add(tid);
-		this.mode = LockMode.EXCLUSIVE;
-		this.lock.unlock();
 	}
 
 }
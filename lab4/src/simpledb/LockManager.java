@@ -1,81 +1,423 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * LockManager grants page and table locks to transactions. A page lock is
+ * taken under an intention lock on its table, so a transaction can instead
+ * lock a whole table once and need no page locks below it. A transaction
+ * that piles up page locks on one table has them escalated to a single
+ * table lock, if no other transaction holds a conflicting lock on the table.
+ * <p>
+ * Deadlocks are detected in a
+ * wait-for graph: a transaction waits for the transactions holding or queued
+ * ahead of it for the lock it requested. A request that starts waiting, or
+ * keeps waiting, looks for a cycle through itself, and the youngest
+ * transaction on the cycle is aborted. No transaction is aborted for just
+ * waiting a long time.
+ */
 public class LockManager {	
-	private ConcurrentHashMap<PageId, Lock> lockTable = null;
-	private ConcurrentHashMap<TransactionId, TransactionId> tidTable = null;
+	/** The locks in use, on PageIds and TableIds: owned by or awaited by some transaction. */
+	private ConcurrentHashMap<Object, Lock> lockTable = null;
+	/** Locks no longer in use, kept for reuse. */
+	private final BlockingQueue<Lock> pool = new ArrayBlockingQueue<>(MAX_POOLED_LOCKS);
+	/** The pages and tables each transaction has locked, and in which mode. */
+	private ConcurrentHashMap<TransactionId, Map<Object, Lock.LockMode>> tidTable = null;
+	/** The number of page locks each transaction holds on each table. */
+	private ConcurrentHashMap<TransactionId, Map<TableId, PageCount>> pageCounts = null;
+	/** The wait-for graph: the lock each waiting transaction waits on. Also the monitor for detection. */
+	private final Map<TransactionId, Lock> waitingFor = new ConcurrentHashMap<>();
+	private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+	
+	private final AtomicLong requests = new AtomicLong(0);
+	private final AtomicLong waits = new AtomicLong(0);
+	private final AtomicLong deadlocks = new AtomicLong(0);
+	private final AtomicLong escalations = new AtomicLong(0);
+	private final AtomicLong failedEscalations = new AtomicLong(0);
+	
+	/** The most unused locks kept for reuse. */
+	private static final int MAX_POOLED_LOCKS = 1024;
+	
+	/** Page locks a transaction holds on one table before they are escalated, by default. */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+	
+	private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
 	
 	public LockManager() {
 		this.lockTable = new ConcurrentHashMap<>();
 		this.tidTable = new ConcurrentHashMap<>();
+		this.pageCounts = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Set how many page locks a transaction may hold on one table before
+	 * they are escalated to a table lock.
+	 */
+	public void setEscalationThreshold(int pages) {
+		this.escalationThreshold = pages;
+	}
+	
+	/**
+	 * The key of a table's lock in the lock table.
+	 */
+	private static final class TableId {
+		private final int tableId;
+		
+		TableId(int tableId) {
+			this.tableId = tableId;
+		}
+		
+		public int hashCode() {
+			return this.tableId;
+		}
+		
+		public boolean equals(Object o) {
+			return o instanceof TableId && ((TableId) o).tableId == this.tableId;
+		}
+	}
+	
+	/**
+	 * The page locks a transaction holds on one table, and how many it holds
+	 * when escalation is next tried. Each failed escalation doubles that.
+	 */
+	private static final class PageCount {
+		private int pages = 0;
+		private int escalateAt;
+		
+		PageCount(int escalateAt) {
+			this.escalateAt = escalateAt;
+		}
 	}
 	
+	/**
+	 * Lock a page in SHARED or EXCLUSIVE mode, first taking the matching
+	 * intention lock on its table. Nothing is locked if tid's lock on the
+	 * table already covers the page.
+	 */
 	public void lock(PageId pid, TransactionId tid, Lock.LockMode mode) throws DeadlockException {
 		if (tid == null || pid == null)
 			return;
 		
-		this.lockTable.putIfAbsent(pid, new Lock());
-		Lock lock = this.lockTable.get(pid);
+		this.requests.incrementAndGet();
+		Map<Object, Lock.LockMode> held = this.tidTable.computeIfAbsent(tid, k -> new ConcurrentHashMap<>());
+		Lock.LockMode pageMode = held.get(pid);
+		if (pageMode != null && pageMode.covers(mode))
+			return;
+		TableId table = new TableId(pid.getTableId());
+		Lock.LockMode tableMode = held.get(table);
+		if (tableMode != null && tableMode.covers(mode))
+			return;
 		
-		try {
-			if(this.hasLock(pid, tid) && mode == lock.getLockMode()) {
-				return;
-			} else if (mode == Lock.LockMode.SHARED && this.hasLock(pid, tid) && lock.getLockMode() == Lock.LockMode.EXCLUSIVE) {
-				return;
-			} else if (mode == Lock.LockMode.EXCLUSIVE && this.hasLock(pid,  tid) && lock.getLockMode() == Lock.LockMode.SHARED) {
-				lock.upgradeLock(tid);
-			} else {
-				lock.acquire(tid, mode);
+		Lock.LockMode intention = mode == Lock.LockMode.EXCLUSIVE
+				? Lock.LockMode.INTENTION_EXCLUSIVE : Lock.LockMode.INTENTION_SHARED;
+		if (tableMode == null || !tableMode.covers(intention))
+			this.acquire(table, tid, intention, held);
+		this.acquire(pid, tid, mode, held);
+		if (pageMode == null && this.countPage(tid, table))
+			this.escalate(tid, table, held);
+	}
+	
+	/**
+	 * Count a new page lock of tid on a table.
+	 *
+	 * @return true if it is time to try escalating
+	 */
+	private boolean countPage(TransactionId tid, TableId table) {
+		PageCount count = this.pageCounts.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(table, k -> new PageCount(this.escalationThreshold));
+		synchronized (count) {
+			return ++count.pages > count.escalateAt;
+		}
+	}
+	
+	/**
+	 * Replace tid's page locks on a table by a table lock: SHARED if it only
+	 * reads the table, EXCLUSIVE if it writes any page. If another
+	 * transaction holds a conflicting lock on the table, tid keeps its page
+	 * locks rather than wait, and tries again once it holds twice as many.
+	 */
+	private void escalate(TransactionId tid, TableId table, Map<Object, Lock.LockMode> held) {
+		Lock.LockMode tableMode = held.get(table);
+		Lock.LockMode mode = tableMode == Lock.LockMode.INTENTION_SHARED
+				? Lock.LockMode.SHARED : Lock.LockMode.EXCLUSIVE;
+		Lock lock = this.lockTable.get(table);
+		Lock.LockMode granted = lock == null ? null : lock.tryAcquire(tid, mode);
+		Map<TableId, PageCount> counts = this.pageCounts.get(tid);
+		if (granted == null) {
+			this.failedEscalations.incrementAndGet();
+			PageCount count = counts == null ? null : counts.get(table);
+			if (count != null) {
+				synchronized (count) {
+					count.escalateAt = Math.max(count.escalateAt, count.pages) * 2;
+				}
+			}
+			return;
+		}
+		
+		held.put(table, granted);
+		for (Iterator<Object> it = held.keySet().iterator(); it.hasNext(); ) {
+			Object resource = it.next();
+			if (resource instanceof PageId && ((PageId) resource).getTableId() == table.tableId) {
+				it.remove();
+				this.release(resource, tid);
 			}
-		} catch (InterruptedException e) {
+		}
+		if (counts != null)
+			counts.remove(table);
+		this.escalations.incrementAndGet();
+	}
+	
+	/** Release tid's lock on a page or table, which it no longer records as held. */
+	private void release(Object resource, TransactionId tid) {
+		Lock lock = this.lockTable.get(resource);
+		if (lock != null) {
+			lock.release(tid);
+			this.dereference(resource);
+		}
+	}
+	
+	/**
+	 * Lock a whole table, in any mode. A SHARED lock lets tid read every page
+	 * of the table, and an EXCLUSIVE lock lets it write them, without taking
+	 * any page locks.
+	 */
+	public void lockTable(int tableId, TransactionId tid, Lock.LockMode mode) throws DeadlockException {
+		if (tid == null)
+			return;
+		
+		this.requests.incrementAndGet();
+		Map<Object, Lock.LockMode> held = this.tidTable.computeIfAbsent(tid, k -> new ConcurrentHashMap<>());
+		TableId table = new TableId(tableId);
+		Lock.LockMode tableMode = held.get(table);
+		if (tableMode == null || !tableMode.covers(mode))
+			this.acquire(table, tid, mode, held);
+	}
+	
+	/**
+	 * Acquire or convert tid's lock on a page or table and record the mode
+	 * it now holds. On a deadlock all of tid's locks are released.
+	 */
+	private void acquire(Object resource, TransactionId tid, Lock.LockMode mode, Map<Object, Lock.LockMode> held)
+		throws DeadlockException {
+		Lock.LockMode heldMode = held.get(resource);
+		// a conversion uses the lock tid already references as an owner
+		Lock lock = heldMode == null ? this.reference(resource) : this.lockTable.get(resource);
+		try {
+			held.put(resource, lock.acquire(tid, mode, this));
+		} catch (DeadlockException | InterruptedException e) {
+			if (heldMode == null)
+				this.dereference(resource);
 			this.removeTransaction(tid);
+			if (e instanceof DeadlockException)
+				throw (DeadlockException) e;
 			throw new DeadlockException(e);
 		}
+	}
+	
+	/**
+	 * Return the lock on a page or table, taking it from the pool if it is
+	 * not locked, and count one more transaction owning or waiting for it.
+	 */
+	private Lock reference(Object resource) {
+		return this.lockTable.compute(resource, (k, lock) -> {
+			if (lock == null) {
+				lock = this.pool.poll();
+				if (lock == null)
+					lock = new Lock();
+			}
+			lock.users++;
+			return lock;
+		});
+	}
+	
+	/**
+	 * Count one less transaction owning or waiting for the lock on a page or
+	 * table. The last one out removes the lock from the table and returns it
+	 * to the pool.
+	 */
+	private void dereference(Object resource) {
+		Lock[] unused = new Lock[1];
+		this.lockTable.computeIfPresent(resource, (k, lock) -> {
+			if (--lock.users > 0)
+				return lock;
+			unused[0] = lock;
+			return null;
+		});
+		if (unused[0] != null)
+			this.pool.offer(unused[0]);
+	}
+	
+	/** @return the number of pages and tables locked or awaited */
+	public int getLockTableSize() {
+		return this.lockTable.size();
+	}
+	
+	/** Record that tid is waiting on lock; called by the lock. */
+	void startWaiting(TransactionId tid, Lock lock) {
+		this.waits.incrementAndGet();
+		synchronized (this.waitingFor) {
+			this.waitingFor.put(tid, lock);
+			this.victims.remove(tid);
+		}
+	}
+	
+	/** Record that tid stopped waiting, granted or aborted; called by the lock. */
+	void stopWaiting(TransactionId tid) {
+		synchronized (this.waitingFor) {
+			this.waitingFor.remove(tid);
+			this.victims.remove(tid);
+		}
+	}
+	
+	/** @return true if the waiting transaction tid was chosen to break a deadlock */
+	boolean isVictim(TransactionId tid) {
+		return this.victims.contains(tid);
+	}
+	
+	/**
+	 * Look for a cycle in the wait-for graph through the waiting transaction
+	 * tid, and abort the youngest transaction on it. Another victim is woken
+	 * to notice that it was chosen.
+	 *
+	 * @throws DeadlockException if tid itself is the victim
+	 */
+	void detectDeadlock(TransactionId tid) throws DeadlockException {
+		TransactionId victim = null;
+		synchronized (this.waitingFor) {
+			List<TransactionId> cycle = this.findCycle(tid, tid, new ArrayList<>(), new HashSet<>());
+			if (cycle == null)
+				return;
+			for (TransactionId t : cycle) {
+				// a cycle with a victim already chosen is being broken
+				if (this.victims.contains(t))
+					return;
+				if (victim == null || t.getId() > victim.getId())
+					victim = t;
+			}
+			this.deadlocks.incrementAndGet();
+			if (!victim.equals(tid))
+				this.victims.add(victim);
+		}
 		
-		tid.addLock(lock);
-		this.tidTable.putIfAbsent(tid, tid);
+		if (victim.equals(tid))
+			throw new DeadlockException("transaction " + tid.getId() + " chosen as deadlock victim");
+		Lock lock = this.waitingFor.get(victim);
+		if (lock != null)
+			lock.wakeWaiters();
 	}
 	
+	/**
+	 * Depth-first search of the wait-for graph from t for a path back to
+	 * start. The caller holds the waitingFor monitor.
+	 *
+	 * @return the transactions on the cycle, or null if there is none
+	 */
+	private List<TransactionId> findCycle(TransactionId start, TransactionId t, List<TransactionId> path, Set<TransactionId> visited) {
+		Lock lock = this.waitingFor.get(t);
+		if (lock == null || !visited.add(t))
+			return null;
+		path.add(t);
+		for (TransactionId blocker : lock.getBlockers(t)) {
+			if (blocker.equals(start))
+				return path;
+			List<TransactionId> cycle = this.findCycle(start, blocker, path, visited);
+			if (cycle != null)
+				return cycle;
+		}
+		path.remove(path.size() - 1);
+		return null;
+	}
+	
+	/** @return the number of lock requests made */
+	public long getRequestCount() {
+		return this.requests.get();
+	}
+	
+	/** @return the number of lock requests that had to wait */
+	public long getWaitCount() {
+		return this.waits.get();
+	}
+	
+	/** @return the number of deadlocks found, each of which aborted one transaction */
+	public long getDeadlockCount() {
+		return this.deadlocks.get();
+	}
+	
+	/** @return the number of times page locks were escalated to a table lock */
+	public long getEscalationCount() {
+		return this.escalations.get();
+	}
+	
+	/** @return the number of escalations given up because of a conflicting table lock */
+	public long getFailedEscalationCount() {
+		return this.failedEscalations.get();
+	}
+	
+	/** @return the fraction of lock requests that ended in a deadlock abort */
+	public double getAbortRate() {
+		long requests = this.requests.get();
+		return requests == 0 ? 0 : (double) this.deadlocks.get() / requests;
+	}
+	
+	/**
+	 * Release tid's lock on a page. Its intention lock on the table is kept.
+	 */
 	public void unlock(PageId pid, TransactionId tid) {
 		if (tid == null || pid == null)
 			return;
 		
-		Lock lock = lockTable.get(pid);
-		if (lock != null) {
-			lock.release(tid);
+		Map<Object, Lock.LockMode> held = this.tidTable.get(tid);
+		if (held == null || held.remove(pid) == null)
+			return;
+		this.release(pid, tid);
+		Map<TableId, PageCount> counts = this.pageCounts.get(tid);
+		PageCount count = counts == null ? null : counts.get(new TableId(pid.getTableId()));
+		if (count != null) {
+			synchronized (count) {
+				count.pages--;
+			}
 		}
-		
-		tid.removeLock(lock);
 	}
 	
+	/**
+	 * Release every lock tid holds, in one pass over its locked pages and
+	 * tables.
+	 */
 	public void removeTransaction(TransactionId tid) {
-		if (tid == null || !this.tidTable.contains(tid))
+		if (tid == null)
 			return;
 		
-		Set<Lock> locks = tid.getLocks();
-		
-		for(Lock lock : locks) {
-			lock.release(tid);
-		}
-		
-		this.tidTable.remove(tid);
+		this.pageCounts.remove(tid);
+		Map<Object, Lock.LockMode> held = this.tidTable.remove(tid);
+		if (held == null)
+			return;
+		for (Object resource : held.keySet())
+			this.release(resource, tid);
 	}
 	
+	/**
+	 * @return true if tid holds a lock on the page, or a lock on its table
+	 *   that lets it read every page
+	 */
 	public boolean hasLock(PageId pid, TransactionId tid) {
-		if (tid == null || !this.tidTable.contains(tid))
+		if (tid == null || pid == null)
 			return false;
 		
-		Set<Lock> locks = tid.getLocks();
-		if (locks == null)
+		Map<Object, Lock.LockMode> held = this.tidTable.get(tid);
+		if (held == null)
 			return false;
-		
-		for (Lock lock : locks) {
-			if (lock == this.lockTable.get(pid))
-				return true;
-		}
-		
-		return false;
+		if (held.containsKey(pid))
+			return true;
+		Lock.LockMode tableMode = held.get(new TableId(pid.getTableId()));
+		return tableMode != null && tableMode.covers(Lock.LockMode.SHARED);
 	}
 }
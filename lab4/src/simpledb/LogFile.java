@@ -207,6 +207,10 @@ public class LogFile {
            after page data
            start offset
         */
+        // transactions that never logged a BEGIN record start here
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -265,7 +269,15 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors; recovery needs Page(PageId, byte[])
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor for " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +287,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -467,6 +479,38 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return;
+
+                // the first before-image logged for a page is its state
+                // before the transaction touched it
+                Map<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDbFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(pid);
+                }
             }
         }
     }
@@ -494,10 +538,120 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                Set<Long> committed = new HashSet<Long>();
+                Set<Long> completed = new HashSet<Long>();
+                List<Long> updateTids = new ArrayList<Long>();
+                List<Long> updateOffsets = new ArrayList<Long>();
+
+                // analysis: find every update record and the outcome of
+                // every transaction; a torn last record ends the log
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                long logEnd = this.getRecoveryStart();
+                raf.seek(logEnd);
+                try {
+                    while (raf.getFilePointer() < raf.length()) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            long offset = raf.getFilePointer();
+                            readPageData(raf);
+                            readPageData(raf);
+                            updateTids.add(recordTid);
+                            updateOffsets.add(offset);
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(recordTid);
+                            completed.add(recordTid);
+                            break;
+                        case ABORT_RECORD:
+                            completed.add(recordTid);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        }
+                        raf.readLong();
+                        logEnd = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    Debug.log("RECOVERY: dropping partial record at " + logEnd);
+                }
+                if (updateOffsets.size() > 0 && updateOffsets.get(updateOffsets.size() - 1) > logEnd) {
+                    updateTids.remove(updateTids.size() - 1);
+                    updateOffsets.remove(updateOffsets.size() - 1);
+                }
+
+                // redo: install the updates of committed transactions in log order
+                Set<PageId> touched = new HashSet<PageId>();
+                for (int i = 0; i < updateOffsets.size(); i++) {
+                    if (committed.contains(updateTids.get(i))) {
+                        raf.seek(updateOffsets.get(i));
+                        readPageData(raf);
+                        Page after = readPageData(raf);
+                        Database.getCatalog().getDbFile(after.getId().getTableId()).writePage(after);
+                        touched.add(after.getId());
+                    }
+                }
+
+                // undo: put back the first before-image of every page updated
+                // by a transaction that never completed; aborted transactions
+                // were rolled back before their abort record was written
+                Set<PageId> undone = new HashSet<PageId>();
+                for (int i = 0; i < updateOffsets.size(); i++) {
+                    if (!completed.contains(updateTids.get(i))) {
+                        raf.seek(updateOffsets.get(i));
+                        Page before = readPageData(raf);
+                        if (undone.add(before.getId())) {
+                            Database.getCatalog().getDbFile(before.getId().getTableId()).writePage(before);
+                            touched.add(before.getId());
+                        }
+                    }
+                }
+
+                for (PageId pid : touched)
+                    Database.getBufferPool().discardPage(pid);
+                tidToFirstLogRecord.clear();
+                raf.setLength(logEnd);
+                raf.seek(logEnd);
+                currentOffset = logEnd;
             }
          }
     }
 
+    /**
+     * Find where recovery has to start reading the log: at the last
+     * checkpoint, which wrote every page out, or at the first record of a
+     * transaction that was running then, if that is earlier. The whole log
+     * is read if there is no checkpoint.
+     */
+    private long getRecoveryStart() throws IOException {
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return LONG_SIZE;
+
+        try {
+            raf.seek(cpLoc);
+            if (raf.readInt() != CHECKPOINT_RECORD)
+                return LONG_SIZE;
+            raf.readLong();
+            long start = cpLoc;
+            int numXactions = raf.readInt();
+            while (numXactions-- > 0) {
+                raf.readLong();
+                start = Math.min(start, raf.readLong());
+            }
+            return start;
+        } catch (EOFException e) {
+            return LONG_SIZE;
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
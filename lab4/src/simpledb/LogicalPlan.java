@@ -243,6 +243,70 @@ public  class LogicalPlan {
 
     }
 
+    /** Return the columns of a table that the select list, filters, joins,
+     *   aggregate and ORDER BY of this plan refer to through its alias, in
+     *   table order, so that a columnar table only reads those columns.
+     *   Every column is returned if the select list has a "*".  Fields that
+     *   can't be resolved are left for the rest of the planner to report.
+     */
+    int[] referencedColumns(LogicalScanNode table) {
+        Vector<String> names = new Vector<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.f);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        boolean[] used = new boolean[td.numFields()];
+        int numUsed = 0;
+        for (String name : names) {
+            String[] fields;
+            try {
+                fields = disambiguateName(name).split("[.]");
+            } catch (ParsingException e) {
+                continue;
+            }
+            if (fields[fields.length - 1].equals("*")) {
+                java.util.Arrays.fill(used, true);
+                numUsed = used.length;
+                break;
+            }
+            if (!fields[0].equals(table.alias))
+                continue;
+            try {
+                int id = td.nameToId(fields[1]);
+                if (!used[id])
+                    numUsed++;
+                used[id] = true;
+            } catch (NoSuchElementException e) {
+                //ignore
+            }
+        }
+        // a scan still needs one column to produce a tuple per row
+        if (numUsed == 0 && used.length > 0) {
+            used[0] = true;
+            numUsed = 1;
+        }
+
+        int[] columns = new int[numUsed];
+        for (int i = 0, j = 0; i < used.length; i++)
+            if (used[i])
+                columns[j++] = i;
+        return columns;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -270,6 +334,14 @@ public  class LogicalPlan {
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, HashMap<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, false);
+    }
+
+    /** Convert this LogicalPlan into a physicalPlan like {@link #physicalPlan(TransactionId, HashMap, boolean)}.
+     *  @param readOnly true if nothing consumes the plan's tuples to write
+     *    them, so that its scans may lock whole tables instead of pages
+     */
+    public DbIterator physicalPlan(TransactionId t, HashMap<String,TableStats> baseTableStats, boolean explain, boolean readOnly) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
@@ -277,9 +349,13 @@ public  class LogicalPlan {
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDbFile(table.t);
+                 if (file instanceof ColumnFile)
+                     ss = new ColumnScan(t, file.getId(), table.alias, referencedColumns(table));
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias, readOnly);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
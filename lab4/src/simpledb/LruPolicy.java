@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LruPolicy implements exact least-recently-used replacement with a linked
+ * list threaded through a hash map. Pinned pages are taken out of the list
+ * until their last pin is released, so hits are O(1) and victim selection
+ * only passes over pages that are dirty or latched at the time.
+ */
+public class LruPolicy implements ReplacementPolicy {
+	private LinkedHashMap<PageId, PageId> order = new LinkedHashMap<>(16, 0.75f, true);
+	/** Pin counts of the resident pages that are out of the list */
+	private Map<PageId, Integer> pinned = new HashMap<>();
+
+	public synchronized void admit(PageId pid) {
+		if (!this.pinned.containsKey(pid))
+			this.order.put(pid, pid);
+	}
+
+	public synchronized void access(PageId pid) {
+		this.order.get(pid);
+	}
+
+	public synchronized void remove(PageId pid) {
+		this.order.remove(pid);
+		this.pinned.remove(pid);
+	}
+
+	public synchronized void pin(PageId pid) {
+		if (this.pinned.merge(pid, 1, Integer::sum) == 1)
+			this.order.remove(pid);
+	}
+
+	public synchronized void unpin(PageId pid) {
+		Integer count = this.pinned.get(pid);
+		if (count == null)
+			return;
+		if (count > 1) {
+			this.pinned.put(pid, count - 1);
+		} else {
+			// the last use of the page was just now
+			this.pinned.remove(pid);
+			this.order.put(pid, pid);
+		}
+	}
+
+	public synchronized PageId evict(Predicate<PageId> evictable) {
+		Iterator<PageId> it = this.order.keySet().iterator();
+		while (it.hasNext()) {
+			PageId pid = it.next();
+			if (evictable.test(pid)) {
+				it.remove();
+				return pid;
+			}
+		}
+		return null;
+	}
+}
@@ -7,7 +7,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -56,8 +56,4 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
-    
-    public void updateAccessTimestamp();
-    
-    public long getAccessTimestamp();
 }
@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Encodings for the columns of a compressed HeapPage. The values of one
+ * column of a page are stored with whichever of these takes the fewest
+ * bytes, behind a one byte tag naming it:
+ * <ul>
+ * <li>PLAIN: each value in turn; strings as a 4-byte length and their bytes.
+ * <li>RLE: a 4-byte count of runs, then each run as its value and an
+ *     unsigned 2-byte length.
+ * <li>DICT: an unsigned 2-byte count of distinct values, the values in
+ *     order of first appearance, then each value's index into them packed
+ *     into as few bits as the largest index needs.
+ * <li>FOR (integers only): a 4-byte base, a 1-byte bit width, then each
+ *     value minus the smallest value packed into that many bits.
+ * </ul>
+ * Packed bits are written least significant first.
+ *
+ * @see HeapPage
+ */
+class PageCompression {
+	static final int PLAIN = 0;
+	static final int RLE = 1;
+	static final int DICT = 2;
+	static final int FOR = 3;
+
+	private PageCompression() {
+	}
+
+	/**
+	 * Running statistics over a sequence of values of one column, from which
+	 * the size of each encoding of the sequence follows without encoding it.
+	 */
+	static class ColumnStats {
+		private final Type type;
+		private int n = 0;
+		private int plainBytes = 0;
+		private Object last = null;
+		private int runBytes = 0;
+		/** Each distinct value, in order of first appearance, with its number of occurrences */
+		private final HashMap<Object, Integer> dictionary = new LinkedHashMap<>();
+		private int dictBytes = 0;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+
+		ColumnStats(Type type) {
+			this.type = type;
+		}
+
+		/** Add the next value of the sequence */
+		void add(Field f) {
+			Object v = value(f);
+			int len = length(v);
+			if (!v.equals(this.last))
+				this.runBytes += len + 2;
+			this.last = v;
+			if (this.dictionary.merge(v, 1, Integer::sum) == 1)
+				this.dictBytes += len;
+			if (v instanceof Integer) {
+				this.min = Math.min(this.min, (Integer) v);
+				this.max = Math.max(this.max, (Integer) v);
+			}
+			this.plainBytes += len;
+			this.n++;
+		}
+
+		/**
+		 * Replace a run of count values equal to old in the middle of the
+		 * sequence with f. before and after are the values either side of
+		 * the run, or null at the start or end of the sequence.
+		 */
+		void replace(Field old, Field f, int count, Field before, Field after) {
+			Object o = value(old);
+			Object v = value(f);
+			if (o.equals(v))
+				return;
+			Object b = before == null ? null : value(before);
+			this.plainBytes += count * (length(v) - length(o));
+			this.runBytes += runBytes(b, v) - runBytes(b, o);
+			if (after != null) {
+				Object a = value(after);
+				this.runBytes += runBytes(v, a) - runBytes(o, a);
+			} else {
+				this.last = v;
+			}
+
+			int left = this.dictionary.merge(o, -count, Integer::sum);
+			if (left == 0) {
+				this.dictionary.remove(o);
+				this.dictBytes -= length(o);
+			}
+			if (this.dictionary.merge(v, count, Integer::sum) == count)
+				this.dictBytes += length(v);
+			if (!(v instanceof Integer))
+				return;
+			if (left == 0 && ((Integer) o == this.min || (Integer) o == this.max)) {
+				// the range may have shrunk; find it again from the distinct values
+				this.min = Long.MAX_VALUE;
+				this.max = Long.MIN_VALUE;
+				for (Object d : this.dictionary.keySet()) {
+					this.min = Math.min(this.min, (Integer) d);
+					this.max = Math.max(this.max, (Integer) d);
+				}
+			} else {
+				this.min = Math.min(this.min, (Integer) v);
+				this.max = Math.max(this.max, (Integer) v);
+			}
+		}
+
+		/** @return the run bytes v adds when it follows previous */
+		private static int runBytes(Object previous, Object v) {
+			return v.equals(previous) ? 0 : length(v) + 2;
+		}
+
+		/** @return the bytes the best encoding of the sequence takes, with its tag */
+		int size() {
+			return 1 + this.size(this.best());
+		}
+
+		/** @return what {@link #size()} would be after adding f */
+		int sizeWith(Field f) {
+			Object v = value(f);
+			int len = length(v);
+			int n = this.n + 1;
+			int runBytes = this.runBytes + (v.equals(this.last) ? 0 : len + 2);
+			boolean known = this.dictionary.containsKey(v);
+			int distinct = this.dictionary.size() + (known ? 0 : 1);
+			int dictBytes = this.dictBytes + (known ? 0 : len);
+			long min = this.min, max = this.max;
+			if (v instanceof Integer) {
+				min = Math.min(min, (Integer) v);
+				max = Math.max(max, (Integer) v);
+			}
+			int best = this.plainBytes + len;
+			best = Math.min(best, 4 + runBytes);
+			best = Math.min(best, 2 + dictBytes + packedBytes(n, bits(distinct - 1)));
+			if (this.type == Type.INT_TYPE)
+				best = Math.min(best, 5 + packedBytes(n, bits(max - min)));
+			return 1 + best;
+		}
+
+		/** @return the encoding that takes the fewest bytes, PLAIN on ties */
+		int best() {
+			int best = PLAIN;
+			for (int encoding = RLE; encoding <= FOR; encoding++)
+				if (this.size(encoding) < this.size(best))
+					best = encoding;
+			return best;
+		}
+
+		private int size(int encoding) {
+			switch (encoding) {
+			case PLAIN:
+				return this.plainBytes;
+			case RLE:
+				return 4 + this.runBytes;
+			case DICT:
+				return 2 + this.dictBytes + packedBytes(this.n, bits(this.dictionary.size() - 1));
+			default:
+				if (this.type != Type.INT_TYPE)
+					return Integer.MAX_VALUE;
+				return 5 + packedBytes(this.n, this.n == 0 ? 0 : bits(this.max - this.min));
+			}
+		}
+	}
+
+	/**
+	 * Write the values of a column with their best encoding, advancing the
+	 * buffer's position by the size of the encoding.
+	 */
+	static void encode(Type type, Field[] values, ByteBuffer buf) {
+		ColumnStats stats = new ColumnStats(type);
+		for (Field f : values)
+			stats.add(f);
+		int encoding = stats.best();
+		buf.put((byte) encoding);
+
+		switch (encoding) {
+		case PLAIN:
+			for (Field f : values)
+				putValue(buf, value(f));
+			break;
+		case RLE:
+			buf.putInt(countRuns(values));
+			for (int i = 0; i < values.length; ) {
+				Object v = value(values[i]);
+				int end = i + 1;
+				while (end < values.length && value(values[end]).equals(v))
+					end++;
+				putValue(buf, v);
+				buf.putShort((short) (end - i));
+				i = end;
+			}
+			break;
+		case DICT:
+			buf.putShort((short) stats.dictionary.size());
+			HashMap<Object, Integer> index = new HashMap<>();
+			for (Object v : stats.dictionary.keySet()) {
+				index.put(v, index.size());
+				putValue(buf, v);
+			}
+			int bits = bits(stats.dictionary.size() - 1);
+			long[] codes = new long[values.length];
+			for (int i = 0; i < values.length; i++)
+				codes[i] = index.get(value(values[i]));
+			pack(buf, codes, bits);
+			break;
+		default:
+			bits = bits(stats.max - stats.min);
+			buf.putInt((int) stats.min);
+			buf.put((byte) bits);
+			long[] deltas = new long[values.length];
+			for (int i = 0; i < values.length; i++)
+				deltas[i] = (Integer) value(values[i]) - stats.min;
+			pack(buf, deltas, bits);
+		}
+	}
+
+	/**
+	 * Read n values of a column written by {@link #encode}, advancing the
+	 * buffer's position past them.
+	 */
+	static Field[] decode(Type type, ByteBuffer buf, int n) {
+		Field[] values = new Field[n];
+		int encoding = buf.get();
+		switch (encoding) {
+		case PLAIN:
+			for (int i = 0; i < n; i++)
+				values[i] = getValue(type, buf);
+			break;
+		case RLE:
+			int runs = buf.getInt();
+			for (int run = 0, i = 0; run < runs; run++) {
+				Field f = getValue(type, buf);
+				int length = buf.getShort() & 0xFFFF;
+				for (int j = 0; j < length && i < n; j++)
+					values[i++] = f;
+			}
+			break;
+		case DICT:
+			Field[] dictionary = new Field[buf.getShort() & 0xFFFF];
+			for (int i = 0; i < dictionary.length; i++)
+				dictionary[i] = getValue(type, buf);
+			long[] codes = unpack(buf, n, bits(dictionary.length - 1));
+			for (int i = 0; i < n; i++)
+				values[i] = dictionary[(int) codes[i]];
+			break;
+		case FOR:
+			long base = buf.getInt();
+			long[] deltas = unpack(buf, n, buf.get());
+			for (int i = 0; i < n; i++)
+				values[i] = new IntField((int) (base + deltas[i]));
+			break;
+		default:
+			throw new IllegalArgumentException("unknown column encoding " + encoding);
+		}
+		return values;
+	}
+
+	private static int countRuns(Field[] values) {
+		int runs = 0;
+		for (int i = 0; i < values.length; i++)
+			if (i == 0 || !value(values[i]).equals(value(values[i - 1])))
+				runs++;
+		return runs;
+	}
+
+	/** @return the value of f as an Integer or a String of at most STRING_LEN chars */
+	private static Object value(Field f) {
+		if (f instanceof IntField)
+			return ((IntField) f).getValue();
+		String s = ((StringField) f).getValue();
+		return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+	}
+
+	private static int length(Object v) {
+		return v instanceof Integer ? 4 : 4 + ((String) v).length();
+	}
+
+	private static void putValue(ByteBuffer buf, Object v) {
+		if (v instanceof Integer) {
+			buf.putInt((Integer) v);
+			return;
+		}
+		String s = (String) v;
+		buf.putInt(s.length());
+		for (int i = 0; i < s.length(); i++)
+			buf.put((byte) s.charAt(i));
+	}
+
+	private static Field getValue(Type type, ByteBuffer buf) {
+		if (type == Type.INT_TYPE)
+			return new IntField(buf.getInt());
+		byte[] bs = new byte[buf.getInt()];
+		buf.get(bs);
+		return new StringField(new String(bs), Type.STRING_LEN);
+	}
+
+	/** @return the number of bits needed to store values from 0 to x */
+	static int bits(long x) {
+		return x <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(x);
+	}
+
+	static int packedBytes(int n, int bits) {
+		return (int) (((long) n * bits + 7) / 8);
+	}
+
+	private static void pack(ByteBuffer buf, long[] values, int bits) {
+		long acc = 0;
+		int accBits = 0;
+		for (long v : values) {
+			acc |= v << accBits;
+			accBits += bits;
+			while (accBits >= 8) {
+				buf.put((byte) acc);
+				acc >>>= 8;
+				accBits -= 8;
+			}
+		}
+		if (accBits > 0)
+			buf.put((byte) acc);
+	}
+
+	private static long[] unpack(ByteBuffer buf, int n, int bits) {
+		long[] values = new long[n];
+		long mask = (1L << bits) - 1;
+		long acc = 0;
+		int accBits = 0;
+		for (int i = 0; i < n; i++) {
+			while (accBits < bits) {
+				acc |= (buf.get() & 0xFFL) << accBits;
+				accBits += 8;
+			}
+			values[i] = acc & mask;
+			acc >>>= bits;
+			accBits -= bits;
+		}
+		return values;
+	}
+}
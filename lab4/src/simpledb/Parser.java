@@ -231,7 +231,7 @@ public class Parser {
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         // and run it
         DbIterator node;
-        node = parseQuery(curtrans.getId(), s);
+        node = parseQueryLogicalPlan(curtrans.getId(), s).physicalPlan(curtrans.getId(), statsMap, explain, true);
 
         Query sdbq = new Query(node, curtrans.getId());
         TupleDesc td = node.getTupleDesc();
@@ -246,15 +246,18 @@ public class Parser {
         }
         System.out.println("");
         
-        sdbq.start();
-        int cnt = 0;
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
-            cnt++;
+        try {
+            sdbq.start();
+            int cnt = 0;
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+                cnt++;
+            }
+            System.out.println("\n " + cnt + " rows.");
+        } finally {
+            sdbq.close();
         }
-        System.out.println("\n " + cnt + " rows.");
-        sdbq.close();
     }
 
     public static void handleInsertStatement(ZInsert s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
@@ -289,7 +292,7 @@ public class Parser {
                     IntField f= new IntField(new Integer(zc.getValue()));
                     t.setField(i,f);
                 } else if(zc.getType() == ZConstant.STRING) {
-                    if (td.getType(i) != Type.STRING_TYPE) {
+                    if (td.getType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value " + zc.getValue() + " is a string, expected an integer.");
                     }
                     StringField f= new StringField(zc.getValue(), Type.STRING_LEN);
@@ -311,13 +314,17 @@ public class Parser {
 
         Query sdbq = new Query(new Insert(curtrans.getId(), newTups, id), curtrans.getId());
         // XXX print field names
-        sdbq.start();
-        System.out.print("Inserted ");
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
+        // an aborted plan is closed too, so that it unpins its pages
+        try {
+            sdbq.start();
+            System.out.print("Inserted ");
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+            }
+        } finally {
+            sdbq.close();
         }
-        sdbq.close();
 
     }
 
@@ -340,13 +347,16 @@ public class Parser {
 
         Query sdbq = new Query(new Delete(curtrans.getId(), lp.physicalPlan(curtrans.getId(), statsMap, false)), curtrans.getId());
         // XXX print field names
-        sdbq.start();
-        System.out.print("Deleted ");
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
+        try {
+            sdbq.start();
+            System.out.print("Deleted ");
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+            }
+        } finally {
+            sdbq.close();
         }
-        sdbq.close();
 
     }
 
@@ -469,7 +479,7 @@ public class Parser {
         System.out.println("Computing table stats.");
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+            TableStats s = TableStats.load(tableid, IOCOSTPERPAGE);
             statsMap.put(Database.getCatalog().getTableName(tableid), s);
         }
         System.out.println("Done.");
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs room for a new one. Implementations track residency through
+ * {@link #admit}, {@link #access} and {@link #remove}, and must pick a victim
+ * without consulting wall-clock time or scanning every frame in the common case.
+ * <p>
+ * All methods may be called concurrently from several transactions.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Record that a page has been brought into the buffer pool.
+     *
+     * @param pid the id of the page that is now resident
+     */
+    public void admit(PageId pid);
+
+    /**
+     * Record a buffer pool hit on a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void access(PageId pid);
+
+    /**
+     * Record that a page has been brought into the buffer pool, possibly by a
+     * sequential scan. Scan-resistant policies keep pages that only scans
+     * touch from pushing out the working set; others ignore the hint.
+     *
+     * @param pid the id of the page that is now resident
+     * @param scan true if the page was read by a sequential scan
+     */
+    public default void admit(PageId pid, boolean scan) {
+        this.admit(pid);
+    }
+
+    /**
+     * Record a buffer pool hit on a resident page, possibly by a sequential
+     * scan.
+     *
+     * @param pid the id of the page that was accessed
+     * @param scan true if the page was accessed by a sequential scan
+     * @see #admit(PageId, boolean)
+     */
+    public default void access(PageId pid, boolean scan) {
+        this.access(pid);
+    }
+
+    /**
+     * Forget a page that has left the buffer pool for reasons other than
+     * eviction (e.g. it was discarded).
+     *
+     * @param pid the id of the page that is no longer resident
+     */
+    public void remove(PageId pid);
+
+    /**
+     * Record that a resident page has been pinned, and can't be evicted
+     * until it is unpinned as many times. Policies may drop pinned pages
+     * from their candidates meanwhile; others ignore pins.
+     *
+     * @param pid the id of the page that was pinned
+     */
+    public default void pin(PageId pid) {
+    }
+
+    /**
+     * Record that one pin taken on a resident page has been released.
+     *
+     * @param pid the id of the page that was unpinned
+     * @see #pin(PageId)
+     */
+    public default void unpin(PageId pid) {
+    }
+
+    /**
+     * Choose a page to evict. The chosen page is removed from the policy.
+     *
+     * @param evictable tells the policy whether a candidate may be evicted
+     *        right now; pages it rejects stay resident and are skipped
+     * @return the id of the victim, or null if no resident page is evictable
+     */
+    public PageId evict(Predicate<PageId> evictable);
+}
@@ -27,11 +27,21 @@ public class SeqScan implements DbIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+    	this(tid, tableid, tableAlias, false);
+    }
+
+    /**
+     * Creates a sequential scan like {@link #SeqScan(TransactionId, int, String)}
+     * that may lock the whole table rather than each page it reads.
+     *
+     * @param readOnly true if the plan this scan belongs to writes nothing
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, boolean readOnly) {
     	this.tid = tid;
     	this.tableid = tableid;
     	this.tableName = tableAlias;
     	this.table = Database.getCatalog().getDbFile(this.tableid);
-    	this.it = this.table.iterator(this.tid);
+    	this.it = this.table.iterator(this.tid, readOnly);
     }
 
     public void open()
@@ -8,33 +8,40 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+        Type[] ts;
         if (args.length == 3) {
-            HeapFileEncoder.convert(new File(args[1]),
-                        new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]));
+            ts = new Type[Integer.parseInt(args[2])];
+            Arrays.fill(ts, Type.INT_TYPE);
         }
         else if (args.length == 4) {
-            ArrayList<Type> ts = new ArrayList<Type>();
             String[] typeStringAr = args[3].split(",");
-            for (String s: typeStringAr) {
+            ts = new Type[typeStringAr.length];
+            for (int i = 0; i < ts.length; i++) {
+            String s = typeStringAr[i];
             if (s.toLowerCase().equals("int"))
-                ts.add(Type.INT_TYPE);
+                ts[i] = Type.INT_TYPE;
             else if (s.toLowerCase().equals("string"))
-                ts.add(Type.STRING_TYPE);
+                ts[i] = Type.STRING_TYPE;
+            else if (s.toLowerCase().equals("varstring"))
+                ts[i] = Type.VARSTRING_TYPE;
             else {
                 System.out.println("Unknown type " + s);
                 return;
             }
             }
-            HeapFileEncoder.convert(new File(args[1]),
-                        new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
-                        Integer.parseInt(args[2]), ts.toArray(new Type[0]));
-
+            if (ts.length != Integer.parseInt(args[2])) {
+                System.out.println("Expected " + args[2] + " types, got " + ts.length);
+                return;
+            }
         } else {
             System.out.println("Unexpected number of arguments to convert ");
+            return;
         }
+        BulkLoader loader = new BulkLoader(ts, BufferPool.PAGE_SIZE);
+        File outFile = new File(args[1].replaceAll(".txt", ".dat"));
+        loader.load(new File(args[1]), outFile);
+        loader.saveTableStats(outFile);
+        System.out.println("Wrote " + loader.numTuples() + " tuples in " + loader.numPages() + " pages");
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -1,8 +1,12 @@
 package simpledb;
 
+import java.io.Serializable;
+
 /** A class to represent a fixed-width histogram over a single String-based field.
  */
-public class StringHistogram {
+public class StringHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     IntHistogram hist;
 
     /** Create a new StringHistogram with a specified number of buckets.
@@ -45,6 +49,12 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Add all of the values counted by another StringHistogram with the
+        same number of buckets to this one */
+    public void addHistogram(StringHistogram other) {
+        hist.addHistogram(other.hist);
+    }
+
     /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string 
         @param op The operation being applied
         @param s The string to apply op to 
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.*;
 import java.util.Arrays;
 
 /** TableStats represents statistics (e.g., histograms) about base tables in a query */
@@ -57,7 +58,83 @@ public class TableStats {
     	}
     }
 
-    /** 
+    /**
+     * Create a TableStats from statistics that were gathered without a scan
+     * of the table, e.g. by {@link BulkLoader} while it wrote the table out.
+     * Histograms may be null for fields that have no values.
+     */
+    TableStats(int tableid, int ioCostPerPage, TupleDesc td, int numTuples,
+               int[] minPerField, int[] maxPerField,
+               IntHistogram[] intHistograms, StringHistogram[] stringHistograms) {
+    	this.ioCostPerPage = ioCostPerPage;
+    	this.tableid = tableid;
+    	this.td = td;
+    	this.numTuples = numTuples;
+    	this.minPerField = minPerField;
+    	this.maxPerField = maxPerField;
+    	this.intHistograms = intHistograms;
+    	this.stringHistograms = stringHistograms;
+    }
+
+    /**
+     * Returns the sidecar file the statistics of the table stored in f are
+     * saved to.
+     */
+    public static File getStatsFile(File table) {
+    	return new File(table.getPath() + ".stats");
+    }
+
+    /**
+     * Statistics for a table: those saved next to its file when it was
+     * loaded, if they are still current, or else computed with a scan.
+     *
+     * @see BulkLoader#saveTableStats
+     */
+    public static TableStats load(int tableid, int ioCostPerPage) {
+    	DbFile file = Database.getCatalog().getDbFile(tableid);
+    	if (file instanceof HeapFile) {
+    		File table = ((HeapFile) file).getFile();
+    		File f = getStatsFile(table);
+    		if (f.exists() && f.lastModified() >= table.lastModified()) {
+    			try {
+    				ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+    				try {
+    					int numTuples = in.readInt();
+    					int[] minPerField = (int[]) in.readObject();
+    					int[] maxPerField = (int[]) in.readObject();
+    					IntHistogram[] intHistograms = (IntHistogram[]) in.readObject();
+    					StringHistogram[] stringHistograms = (StringHistogram[]) in.readObject();
+    					if (minPerField.length == file.getTupleDesc().numFields())
+    						return new TableStats(tableid, ioCostPerPage, file.getTupleDesc(), numTuples,
+    								minPerField, maxPerField, intHistograms, stringHistograms);
+    				} finally {
+    					in.close();
+    				}
+    			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+    				// unreadable; fall back to a scan
+    			}
+    		}
+    	}
+    	return new TableStats(tableid, ioCostPerPage);
+    }
+
+    /**
+     * Write these statistics to f, to be read back by {@link #load}.
+     */
+    void save(File f) throws IOException {
+    	ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+    	try {
+    		out.writeInt(this.numTuples);
+    		out.writeObject(this.minPerField);
+    		out.writeObject(this.maxPerField);
+    		out.writeObject(this.intHistograms);
+    		out.writeObject(this.stringHistograms);
+    	} finally {
+    		out.close();
+    	}
+    }
+
+    /**
      * Estimates the
      * cost of sequentially scanning the file, given that the cost to read
      * a page is costPerPageIO.  You can assume that there are no
@@ -72,7 +149,11 @@ public class TableStats {
      */ 
     public double estimateScanCost() {
     	// some code goes here
-        return this.ioCostPerPage * ((HeapFile)Database.getCatalog().getDbFile(this.tableid)).numPages();
+    	DbFile file = Database.getCatalog().getDbFile(this.tableid);
+    	// a columnar scan reads fewer pages, so this is an upper bound for it
+    	if (file instanceof ColumnFile)
+    		return this.ioCostPerPage * ((ColumnFile) file).numPages();
+        return this.ioCostPerPage * ((HeapFile) file).numPages();
     }
 
     /** 
@@ -100,7 +181,7 @@ public class TableStats {
     	// some code goes here
         if(this.td.getType(field) == Type.INT_TYPE) {
         	return this.intHistograms[field].estimateSelectivity(op, ((IntField)constant).getValue());
-        } else if (this.td.getType(field) == Type.STRING_TYPE) {
+        } else if (this.td.getType(field) == Type.STRING_TYPE || this.td.getType(field) == Type.VARSTRING_TYPE) {
         	return this.stringHistograms[field].estimateSelectivity(op, ((StringField)constant).getValue());
         } else {
         	return 0.0;
@@ -142,7 +223,7 @@ public class TableStats {
 	    				this.intHistograms[fieldIndex] = new IntHistogram(NUM_HIST_BINS, this.minPerField[fieldIndex], this.maxPerField[fieldIndex]);
 	    			}
 	    			this.intHistograms[fieldIndex].addValue(((IntField)field).getValue());
-    			} else if (this.td.getType(fieldIndex) == Type.STRING_TYPE) {
+    			} else if (this.td.getType(fieldIndex) == Type.STRING_TYPE || this.td.getType(fieldIndex) == Type.VARSTRING_TYPE) {
     				if(this.stringHistograms[fieldIndex] == null) {
     					this.stringHistograms[fieldIndex] = new StringHistogram(NUM_HIST_BINS);
     				}
@@ -41,19 +41,16 @@ public class Transaction {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
+            } else if (Database.getBufferPool().isForce()) {
+                //write all the dirty pages for this transaction out; in
+                //NO-FORCE mode the buffer pool logs them and the commit
                 Database.getBufferPool().flushPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
-            try {
-
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // release locks; in NO-FORCE mode this also logs the commit, so
+            // a failure has to reach the caller
+            Database.getBufferPool().transactionComplete(tid, !abort);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
@@ -1,7 +1,5 @@
 package simpledb;
 
-import java.util.Set;
-import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -10,7 +8,6 @@ import java.util.concurrent.atomic.AtomicLong;
 public class TransactionId {
     static AtomicLong counter = new AtomicLong(0);
     long myid;
-    private Set<Lock> locks = new HashSet<>();
     
     public TransactionId() {
         myid = counter.getAndIncrement();
@@ -33,16 +30,4 @@ public class TransactionId {
     public int hashCode() {
         return (int) myid;
     }
-    
-    void addLock(Lock lock) {
-    	this.locks.add(lock);
-    }
-    
-    void removeLock(Lock lock) {
-    	this.locks.remove(lock);
-    }
-    
-    Set<Lock> getLocks() {
-    	return locks;
-    }
 }
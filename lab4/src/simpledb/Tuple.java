@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
 import java.util.StringJoiner;
 
 /**
@@ -11,6 +14,8 @@ public class Tuple {
 	private TupleDesc desc;
 	private Field[] fields;
 	private RecordId rid;
+	private ByteBuffer data = null;
+	private int offset = 0;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -24,6 +29,20 @@ public class Tuple {
     	this.fields = new Field[desc.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a serialized tuple the first
+     * time they are read. The buffer must not change while the tuple is alive.
+     *
+     * @param td the schema of this tuple.
+     * @param data the buffer holding the serialized tuple
+     * @param offset the index of the tuple's first byte in data
+     */
+    Tuple(TupleDesc td, ByteBuffer data, int offset) {
+    	this(td);
+    	this.data = data;
+    	this.offset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,10 +88,20 @@ public class Tuple {
      */
     public Field getField(int i) {
         // some code goes here
-    	if (i < this.desc.numFields())
-    		return this.fields[i];
-    	else
+    	if (i >= this.desc.numFields())
     		return null;
+    	
+    	Field f = this.fields[i];
+    	if (f == null && this.data != null) {
+    		try {
+    			f = this.desc.getType(i).parse(this.data, this.offset + this.desc.getFieldOffset(i, this.data, this.offset));
+    		} catch (ParseException e) {
+    			e.printStackTrace();
+    			throw new NoSuchElementException("parsing error!");
+    		}
+    		this.fields[i] = f;
+    	}
+    	return f;
     }
 
     /**
@@ -88,7 +117,7 @@ public class Tuple {
         // some code goes here
     	StringJoiner joiner = new StringJoiner("\t");
     	for (int i = 0; i < this.desc.numFields(); i++) {
-    		joiner.add(this.fields[i].toString());
+    		joiner.add(this.getField(i).toString());
     	}
         return joiner.toString() + "\n";
         //throw new UnsupportedOperationException("Implement this");
@@ -1,4 +1,6 @@
 package simpledb;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.*;
 
 /**
@@ -8,6 +10,8 @@ public class TupleDesc {
 	private ArrayList<Type> types = null;
 	private ArrayList<String> names = null;
 	private int size = 0;
+	private int minSize = 0;
+	private int[] offsets = null;
 
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields
@@ -44,9 +48,7 @@ public class TupleDesc {
     	this.types = new ArrayList<Type>(Arrays.asList(typeAr));
     	this.names = new ArrayList<String>(Arrays.asList(fieldAr));
     	
-    	for (Type var : types) {
-    		this.size += var.getLen();
-    	}
+    	this.computeOffsets();
     }
 
     /**
@@ -62,8 +64,18 @@ public class TupleDesc {
     	this.types = new ArrayList<Type>(Arrays.asList(typeAr));
     	this.names = new ArrayList<String>(Arrays.asList(new String[this.numFields()]));
     	
-    	for (Type var : types) {
-    		this.size += var.getLen();
+    	this.computeOffsets();
+    }
+
+    /**
+     * Work out where each field starts within a serialized tuple.
+     */
+    private void computeOffsets() {
+    	this.offsets = new int[this.types.size()];
+    	for (int i = 0; i < this.offsets.length; i++) {
+    		this.offsets[i] = this.size;
+    		this.size += this.types.get(i).getLen();
+    		this.minSize += this.types.get(i).getMinLen();
     	}
     }
 
@@ -124,15 +136,79 @@ public class TupleDesc {
     		throw new NoSuchElementException();
     }
 
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple. If an
+     * earlier field has a variable-length type, use
+     * {@link #getFieldOffset(int, ByteBuffer, int)} instead.
+     *
+     * @param i The index of the field. It must be a valid index.
+     * @return the offset of the ith field from the start of the tuple
+     * @throws NoSuchElementException if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	if (i < numFields())
+    		return this.offsets[i];
+    	else
+    		throw new NoSuchElementException();
+    }
+
+    /**
+     * Find where field i starts in a serialized tuple that may have
+     * variable-length fields before it.
+     *
+     * @param i index of the field
+     * @param data the buffer holding the serialized tuple
+     * @param offset the index of the tuple's first byte in data
+     * @return the offset of the field from the start of the tuple
+     * @throws ParseException if a field before i has a corrupt length
+     */
+    public int getFieldOffset(int i, ByteBuffer data, int offset) throws NoSuchElementException, ParseException {
+    	if (this.isFixedSize())
+    		return this.getFieldOffset(i);
+    	if (i >= numFields())
+    		throw new NoSuchElementException();
+    	int fieldOffset = 0;
+    	for (int j = 0; j < i; j++)
+    		fieldOffset += this.types.get(j).getLen(data, offset + fieldOffset);
+    	return fieldOffset;
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     * Note that tuples from a given TupleDesc are of a fixed size.
+     * Tuples with variable-length fields may be smaller; this is the most
+     * space one can take.
      */
     public int getSize() {
         // some code goes here
         return this.size;
     }
 
+    /**
+     * @return the fewest bytes a tuple of this TupleDesc can take.
+     */
+    public int getMinSize() {
+    	return this.minSize;
+    }
+
+    /**
+     * @return the number of bytes t takes when serialized.
+     */
+    public int getSize(Tuple t) {
+    	if (this.isFixedSize())
+    		return this.size;
+    	int size = 0;
+    	for (int i = 0; i < this.numFields(); i++)
+    		size += this.types.get(i).getLen(t.getField(i));
+    	return size;
+    }
+
+    /**
+     * @return true if every tuple of this TupleDesc takes {@link #getSize()} bytes.
+     */
+    public boolean isFixedSize() {
+    	return this.minSize == this.size;
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality.
      * Two TupleDescs are considered equal if they are the same size and if the
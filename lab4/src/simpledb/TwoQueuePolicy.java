@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy implements the 2Q replacement algorithm, which resists
+ * being flushed by large scans. A newly admitted page goes to a small FIFO
+ * queue (A1in) and is evicted from there unless it is referenced again after
+ * leaving it: the ids of recently evicted A1in pages are remembered in a ghost
+ * queue (A1out), and a page readmitted while its id is still there joins the
+ * main LRU queue (Am) that holds the working set.
+ * <p>
+ * Pages read by sequential scans stay in A1in and leave no ghost behind, so
+ * a scan can occupy at most A1in's share of the pool no matter how often it
+ * is repeated.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+	private LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+	private LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+	private LinkedHashSet<PageId> am = new LinkedHashSet<>();
+	private Set<PageId> scanned = new HashSet<>();
+	private int maxA1in;
+	private int maxA1out;
+
+	/**
+	 * Sizes A1in at a quarter of the pool and A1out at half of it, as
+	 * suggested by the 2Q paper.
+	 *
+	 * @param capacity the number of pages the buffer pool can hold
+	 */
+	public TwoQueuePolicy(int capacity) {
+		this.maxA1in = Math.max(capacity / 4, 1);
+		this.maxA1out = Math.max(capacity / 2, 1);
+	}
+
+	public void admit(PageId pid) {
+		this.admit(pid, false);
+	}
+
+	public synchronized void admit(PageId pid, boolean scan) {
+		if (this.a1in.contains(pid) || this.am.contains(pid)) {
+			this.access(pid, scan);
+			return;
+		}
+		if (!scan && this.a1out.remove(pid)) {
+			this.am.add(pid);
+		} else {
+			this.a1in.add(pid);
+			if (scan)
+				this.scanned.add(pid);
+		}
+	}
+
+	public void access(PageId pid) {
+		this.access(pid, false);
+	}
+
+	public synchronized void access(PageId pid, boolean scan) {
+		if (scan)
+			return;
+		if (this.am.remove(pid)) {
+			this.am.add(pid);
+		} else {
+			// correlated references while in A1in don't promote a page, but
+			// one that is not from a scan earns it a ghost on eviction
+			this.scanned.remove(pid);
+		}
+	}
+
+	public synchronized void remove(PageId pid) {
+		this.a1in.remove(pid);
+		this.am.remove(pid);
+		this.scanned.remove(pid);
+	}
+
+	public synchronized PageId evict(Predicate<PageId> evictable) {
+		boolean fromA1in = this.a1in.size() > this.maxA1in || this.am.isEmpty();
+		PageId victim = fromA1in ? this.evictFrom(this.a1in, evictable) : this.evictFrom(this.am, evictable);
+		if (victim == null)
+			victim = fromA1in ? this.evictFrom(this.am, evictable) : this.evictFrom(this.a1in, evictable);
+		return victim;
+	}
+
+	private PageId evictFrom(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+		Iterator<PageId> it = queue.iterator();
+		while (it.hasNext()) {
+			PageId pid = it.next();
+			if (evictable.test(pid)) {
+				it.remove();
+				if (queue == this.a1in && !this.scanned.remove(pid))
+					this.remember(pid);
+				return pid;
+			}
+		}
+		return null;
+	}
+
+	private void remember(PageId pid) {
+		this.a1out.add(pid);
+		if (this.a1out.size() > this.maxA1out) {
+			Iterator<PageId> it = this.a1out.iterator();
+			it.next();
+			it.remove();
+		}
+	}
+}
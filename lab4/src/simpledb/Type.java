@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,15 @@ public enum Type {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,15 +52,130 @@ public enum Type {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                int strLen = buf.getInt(offset);
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, offset);
+                byte bs[] = new byte[strLen];
+                for (int i = 0; i < strLen; i++)
+                    bs[i] = buf.get(offset + 4 + i);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+    }, VARSTRING_TYPE() {
+        /** The most space a value can take: its length, then up to STRING_LEN bytes */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 4;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public int getLen(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return 4 + checkLen(buf.getInt(offset), offset);
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf) {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), STRING_LEN);
+            buf.putInt(len);
+            for (int i = 0; i < len; i++)
+                buf.put((byte) s.charAt(i));
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = checkLen(dis.readInt(), 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            return STRING_TYPE.parse(buf, offset);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    /**
+     * @return strLen, if it is a length a stored string can have
+     * @throws ParseException if it is not, as on a corrupt page
+     */
+    private static int checkLen(int strLen, int offset) throws ParseException {
+        if (strLen < 0 || strLen > STRING_LEN)
+            throw new ParseException("bad string length " + strLen, offset);
+        return strLen;
+    }
+
   /**
-   * @return the number of bytes required to store a field of this type.
+   * @return the number of bytes required to store a field of this type, or
+   *   for variable-length types the most bytes a field can take.
    */
     public abstract int getLen();
 
+  /**
+   * @return the fewest bytes a field of this type can take.
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes f takes when stored as this type.
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes taken by the field stored in buf at offset.
+   * @throws ParseException if the stored length is not one a field of this
+   *   type can have.
+   */
+    public int getLen(ByteBuffer buf, int offset) throws ParseException {
+        return getLen();
+    }
+
+  /**
+   * @return true if every field of this type takes {@link #getLen()} bytes.
+   */
+    public boolean isFixedLength() {
+        return getMinLen() == getLen();
+    }
+
+  /**
+   * Write f to buf in this type's storage format, and advance the position
+   * by {@link #getLen(Field)} bytes.
+   */
+    public void serialize(Field f, ByteBuffer buf) {
+        f.serialize(buf);
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +185,16 @@ public enum Type {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at an absolute offset. The buffer's
+   *   position is not changed, so a page image can be decoded by several
+   *   threads at once.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+  private HeapFile hf;
+  private TransactionId tid;
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    // ~10 pages of two-column tuples
+    hf = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+    tid = new TransactionId();
+    bp = Database.resetBufferPool(2);
+  }
+
+  /**
+   * Unit test for BufferPool.pinPage(): pinned pages are never evicted.
+   */
+  @Test public void pinnedPagesStayResident() throws Exception {
+    PageId p0 = new HeapPageId(hf.getId(), 0);
+    PageId p1 = new HeapPageId(hf.getId(), 1);
+    PageId p2 = new HeapPageId(hf.getId(), 2);
+
+    Page pinned0 = bp.pinPage(tid, p0, Permissions.READ_ONLY);
+    Page pinned1 = bp.pinPage(tid, p1, Permissions.READ_ONLY);
+    try {
+      bp.getPage(tid, p2, Permissions.READ_ONLY);
+      fail("expected every frame to be pinned");
+    } catch (DbException e) {}
+
+    bp.unpinPage(tid, p1);
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+    assertSame(pinned0, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    assertNotSame(pinned1, bp.getPage(tid, p1, Permissions.READ_ONLY));
+  }
+
+  /**
+   * Pins a transaction still holds when it aborts are released, and a late
+   * unpin by it leaves the pins of other transactions alone.
+   */
+  @Test public void abortReleasesPins() throws Exception {
+    PageId p0 = new HeapPageId(hf.getId(), 0);
+    PageId p1 = new HeapPageId(hf.getId(), 1);
+    PageId p2 = new HeapPageId(hf.getId(), 2);
+
+    SeqScan scan = new SeqScan(tid, hf.getId(), "");
+    scan.open();
+    scan.next();
+    bp.pinPage(tid, p1, Permissions.READ_ONLY);
+    bp.transactionComplete(tid, false);
+
+    TransactionId other = new TransactionId();
+    bp.pinPage(other, p0, Permissions.READ_ONLY);
+    bp.pinPage(other, p2, Permissions.READ_ONLY);
+    bp.unpinPage(tid, p0);
+    try {
+      bp.getPage(other, p1, Permissions.READ_ONLY);
+      fail("expected p0 to stay pinned");
+    } catch (DbException e) {}
+    bp.transactionComplete(other);
+  }
+
+  /**
+   * Concurrent misses on the same page must share a single frame.
+   */
+  @Test public void concurrentMissesShareFrame() throws Exception {
+    final PageId p0 = new HeapPageId(hf.getId(), 0);
+    final int threads = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<Page>> results = new ArrayList<Future<Page>>();
+    for (int i = 0; i < threads; i++) {
+      results.add(pool.submit(new Callable<Page>() {
+        public Page call() throws Exception {
+          start.await();
+          return bp.getPage(tid, p0, Permissions.READ_ONLY);
+        }
+      }));
+    }
+    start.countDown();
+
+    Page first = results.get(0).get();
+    for (Future<Page> result : results)
+      assertSame(first, result.get());
+    pool.shutdown();
+  }
+
+  /**
+   * Unit test for BufferPool.readAhead(): the pages are read once, in the
+   * background, and are then resident.
+   */
+  @Test public void readAheadLoadsPages() throws Exception {
+    final int[] reads = new int[1];
+    HeapFile counted = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+      @Override public Page readPage(PageId pid) {
+        reads[0]++;
+        return super.readPage(pid);
+      }
+    };
+    Database.getCatalog().addTable(counted, SystemTestUtil.getUUID());
+    bp = Database.resetBufferPool(20);
+
+    bp.readAhead(new HeapPageId(counted.getId(), 2), 4).get();
+    assertEquals(4, reads[0]);
+    for (int i = 2; i < 6; i++)
+      bp.getPage(tid, new HeapPageId(counted.getId(), i), Permissions.READ_ONLY);
+    assertEquals(4, reads[0]);
+
+    // read-ahead is capped at a quarter of the pool
+    bp.readAhead(new HeapPageId(counted.getId(), 6), 10).get();
+    assertEquals(9, reads[0]);
+  }
+
+  /**
+   * The background writer cleans pages whose dirtying transaction is no
+   * longer running, and leaves the pages of running transactions alone.
+   */
+  @Test public void backgroundWriterCleansCompletedPages() throws Exception {
+    Page running = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+    Page completed = bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE);
+    running.markDirty(true, tid);
+    completed.markDirty(true, new TransactionId());
+
+    bp.startBackgroundWriter(5);
+    try {
+      for (int i = 0; i < 200 && completed.isDirty() != null; i++)
+        Thread.sleep(10);
+    } finally {
+      bp.stopBackgroundWriter();
+    }
+    assertNull(completed.isDirty());
+    assertEquals(tid, running.isDirty());
+  }
+
+  /**
+   * A failed write stops the background writer, and the failure is thrown
+   * when the writer is stopped.
+   */
+  @Test public void backgroundWriterReportsFailure() throws Exception {
+    final CountDownLatch written = new CountDownLatch(1);
+    HeapFile failing = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+      @Override public void writePage(Page page) throws IOException {
+        written.countDown();
+        throw new IOException("disk full");
+      }
+    };
+    Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+    Page page = bp.getPage(tid, new HeapPageId(failing.getId(), 0), Permissions.READ_WRITE);
+    page.markDirty(true, new TransactionId());
+
+    bp.startBackgroundWriter(5);
+    assertTrue(written.await(2, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    try {
+      bp.stopBackgroundWriter();
+      fail("expected the failed write to be reported");
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+    assertNotNull(page.isDirty());
+    bp.stopBackgroundWriter();
+  }
+
+  /**
+   * When every candidate victim is latched by another thread, eviction waits
+   * for a latch instead of asking the policy for victims over and over.
+   */
+  @Test public void evictionWaitsForLatchedVictims() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    HeapFile slow = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+      @Override public void writePage(Page page) throws IOException {
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        super.writePage(page);
+      }
+    };
+    Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+    final AtomicInteger evictions = new AtomicInteger();
+    final LruPolicy lru = new LruPolicy();
+    bp = new BufferPool(2, new ReplacementPolicy() {
+      public void admit(PageId pid) { lru.admit(pid); }
+      public void access(PageId pid) { lru.access(pid); }
+      public void remove(PageId pid) { lru.remove(pid); }
+      public PageId evict(Predicate<PageId> evictable) {
+        evictions.incrementAndGet();
+        return lru.evict(evictable);
+      }
+    });
+
+    bp.getPage(tid, new HeapPageId(slow.getId(), 0), Permissions.READ_WRITE).markDirty(true, new TransactionId());
+    bp.getPage(tid, new HeapPageId(slow.getId(), 1), Permissions.READ_ONLY);
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    // the flush holds the latches of both resident pages while it writes
+    Future<?> flush = pool.submit(new Callable<Void>() {
+      public Void call() throws Exception {
+        bp.flushAllPages();
+        return null;
+      }
+    });
+    assertTrue(writing.await(2, TimeUnit.SECONDS));
+    Future<Page> load = pool.submit(new Callable<Page>() {
+      public Page call() throws Exception {
+        return bp.getPage(tid, new HeapPageId(slow.getId(), 2), Permissions.READ_ONLY);
+      }
+    });
+    Thread.sleep(200);
+    assertFalse(load.isDone());
+    assertTrue(evictions.get() < 10);
+
+    release.countDown();
+    flush.get();
+    assertNotNull(load.get());
+    pool.shutdown();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferPoolTest.class);
+  }
+}
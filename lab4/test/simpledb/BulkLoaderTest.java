@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final Type[] INT_STRING = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    private static File createTempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Write numRows lines of "i, name-i" with a blank line every so often and
+     * DOS line endings, and no newline after the last line.
+     */
+    private static File writeText(int numRows) throws IOException {
+        File f = createTempFile(".txt");
+        Writer w = new BufferedWriter(new FileWriter(f));
+        for (int i = 0; i < numRows; i++) {
+            if (i > 0)
+                w.write(i % 97 == 0 ? "\r\n\r\n" : "\r\n");
+            w.write(i + ", name-" + i);
+        }
+        w.close();
+        return f;
+    }
+
+    private static List<Tuple> readAll(HeapFile hf) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Lines that straddle chunk boundaries are loaded once, in order, and
+     * the file is the same as one written from a single chunk.
+     */
+    @Test public void loadTextAcrossChunks() throws Exception {
+        File in = writeText(3000);
+        File parallel = createTempFile(".dat");
+        File serial = createTempFile(".dat");
+
+        BulkLoader loader = new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE, 1000, 4);
+        loader.load(in, parallel);
+        new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE, Integer.MAX_VALUE, 1).load(in, serial);
+        assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+
+        HeapFile hf = new HeapFile(parallel, new TupleDesc(INT_STRING));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        assertEquals(3000, loader.numTuples());
+        assertEquals(hf.numPages(), loader.numPages());
+
+        List<Tuple> tuples = readAll(hf);
+        assertEquals(3000, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("name-" + i, ((StringField) tuples.get(i).getField(1)).getValue());
+        }
+    }
+
+    /**
+     * Variable-length strings are loaded onto slotted pages, which take far
+     * fewer pages than fixed-width strings.
+     */
+    @Test public void loadVariableLength() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.VARSTRING_TYPE };
+        File in = writeText(3000);
+        File out = createTempFile(".dat");
+        BulkLoader loader = new BulkLoader(types, BufferPool.PAGE_SIZE, 10000, 4);
+        loader.load(in, out);
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        assertEquals(hf.numPages(), loader.numPages());
+        BulkLoader fixed = new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE);
+        fixed.load(in, createTempFile(".dat"));
+        assertTrue(loader.numPages() * 4 < fixed.numPages());
+
+        List<Tuple> tuples = readAll(hf);
+        assertEquals(3000, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("name-" + i, ((StringField) tuples.get(i).getField(1)).getValue());
+        }
+    }
+
+    /**
+     * The statistics gathered while loading match the table.
+     */
+    @Test public void tableStats() throws Exception {
+        File in = writeText(3000);
+        File out = createTempFile(".dat");
+        BulkLoader loader = new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE, 1000, 4);
+        loader.load(in, out);
+
+        TableStats stats = loader.getTableStats(0, 1);
+        assertEquals(3000, stats.estimateTableCardinality(1.0));
+        assertEquals(0.5, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(1500)), 0.02);
+        assertEquals(0.0, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(3000)), 0.001);
+    }
+
+    /**
+     * TableStats.load() uses the statistics saved beside a table while they
+     * are current, and scans the table once they are stale.
+     */
+    @Test public void savedTableStats() throws Exception {
+        File big = createTempFile(".dat");
+        BulkLoader loader = new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE, 1000, 4);
+        loader.load(writeText(3000), big);
+        loader.saveTableStats(big);
+        TableStats.getStatsFile(big).deleteOnExit();
+
+        // give a small table the saved statistics of the big one
+        File small = createTempFile(".dat");
+        new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE).load(writeText(10), small);
+        File stats = TableStats.getStatsFile(small);
+        stats.deleteOnExit();
+        Files.copy(TableStats.getStatsFile(big).toPath(), stats.toPath());
+        stats.setLastModified(small.lastModified() + 1000);
+
+        HeapFile hf = new HeapFile(small, new TupleDesc(INT_STRING));
+        Database.getCatalog().addTable(hf, "small");
+        TableStats saved = TableStats.load(hf.getId(), 1);
+        assertEquals(3000, saved.estimateTableCardinality(1.0));
+        assertEquals(0.5, saved.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(1500)), 0.02);
+
+        stats.setLastModified(small.lastModified() - 1000);
+        assertEquals(10, TableStats.load(hf.getId(), 1).estimateTableCardinality(1.0));
+    }
+
+    /**
+     * Loading from a list of tuples matches HeapFileEncoder's documented
+     * format, including an empty table.
+     */
+    @Test public void loadList() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File out = createTempFile(".dat");
+        HeapFileEncoder.convert(tuples, out, BufferPool.PAGE_SIZE, 2);
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+
+        for (int i = 0; i < 1000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        HeapFileEncoder.convert(tuples, out, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = Utility.openHeapFile(2, out);
+        assertEquals(2, hf.numPages());
+        List<Tuple> read = readAll(hf);
+        assertEquals(1000, read.size());
+        assertEquals(new IntField(-999), read.get(999).getField(1));
+    }
+
+    /**
+     * A line that doesn't parse fails the load.
+     */
+    @Test(expected = IOException.class) public void malformedLine() throws Exception {
+        File in = createTempFile(".txt");
+        Writer w = new FileWriter(in);
+        w.write("1,a\nx,b\n");
+        w.close();
+        new BulkLoader(INT_STRING, BufferPool.PAGE_SIZE).load(in, createTempFile(".dat"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
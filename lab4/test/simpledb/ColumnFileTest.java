@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+
+    private File file;
+    private ColumnFile cf;
+    private List<ArrayList<Integer>> rows;
+
+    /**
+     * Create an empty columnar table and a list of rows for it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("column", ".dat");
+        file.deleteOnExit();
+        for (int i = 0; i < COLUMNS; i++)
+            new File(file.getPath() + "." + i).deleteOnExit();
+        cf = new ColumnFile(file, Utility.getTupleDesc(COLUMNS, "c"));
+        Database.getCatalog().addTable(cf, "t");
+
+        rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i * 2, i % 7)));
+    }
+
+    private void insertRows(TransactionId tid, List<ArrayList<Integer>> rows) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (ArrayList<Integer> row : rows) {
+            Tuple t = new Tuple(cf.getTupleDesc());
+            for (int i = 0; i < row.size(); i++)
+                t.setField(i, new IntField(row.get(i)));
+            tuples.add(t);
+        }
+        cf.addTuples(tid, tuples.iterator());
+    }
+
+    /**
+     * Rows inserted through the buffer pool come back from a scan, and from
+     * a new ColumnFile over the same files once committed.
+     */
+    @Test public void insertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertRows(tid, rows);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int intsPerPage = BufferPool.PAGE_SIZE / Type.INT_TYPE.getLen();
+        assertEquals(1, cf.numPages(ColumnFile.LIVE_COLUMN));
+        assertEquals((ROWS + intsPerPage - 1) / intsPerPage, cf.numPages(0));
+        SystemTestUtil.matchTuples(cf, rows);
+
+        Database.reset();
+        ColumnFile reopened = new ColumnFile(file, Utility.getTupleDesc(COLUMNS, "c"));
+        Database.getCatalog().addTable(reopened, "t");
+        SystemTestUtil.matchTuples(reopened, rows);
+    }
+
+    /**
+     * A scan of some of the columns returns them in the order asked for and
+     * never reads a page of the other columns.
+     */
+    @Test public void scanSomeColumns() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertRows(tid, rows);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "t", new int[] { 2, 0 });
+        assertEquals("t.c2", scan.getTupleDesc().getFieldName(0));
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows)
+            expected.add(new ArrayList<Integer>(Arrays.asList(row.get(2), row.get(0))));
+        SystemTestUtil.matchTuples(scan, expected);
+
+        assertTrue(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 0, 0)));
+        for (int pageno = 0; pageno < cf.numPages(1); pageno++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, pageno)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleted rows and rows of aborted inserts are skipped by scans, and
+     * later inserts are still found.
+     */
+    @Test public void deleteAndAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertRows(tid, rows.subList(0, 100));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        insertRows(tid, rows.subList(100, 200));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid, new int[] { 0 });
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        assertEquals(1, first.getTupleDesc().numFields());
+        cf.deleteTuple(tid, first);
+        insertRows(tid, rows.subList(200, 300));
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(rows.subList(1, 100));
+        expected.addAll(rows.subList(200, 300));
+        SystemTestUtil.matchTuples(cf, expected);
+    }
+
+    /**
+     * A page's before-image is the contents at its last setBeforeImage(),
+     * and is not changed by later writes to the page.
+     */
+    @Test public void pageBeforeImage() throws Exception {
+        ColumnPage page = new ColumnPage(new ColumnPageId(cf.getId(), 0, 0), ColumnPage.createEmptyPageData());
+        ColumnPage original = page.getBeforeImage();
+        page.setField(0, new IntField(1));
+        assertEquals(new IntField(0), page.getBeforeImage().getField(0));
+        assertEquals(new IntField(0), original.getField(0));
+
+        page.setBeforeImage();
+        ColumnPage committed = page.getBeforeImage();
+        page.setField(0, new IntField(2));
+        assertEquals(new IntField(1), page.getBeforeImage().getField(0));
+        assertEquals(new IntField(1), committed.getField(0));
+        assertEquals(new IntField(2), page.getField(0));
+    }
+
+    /**
+     * The plan of a query over a columnar table scans only the columns the
+     * query refers to.
+     */
+    @Test public void planReadsReferencedColumns() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertRows(tid, rows);
+        Database.getBufferPool().transactionComplete(tid);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.c2", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("c0", null);
+        LogicalScanNode scan = new LogicalScanNode(cf.getId(), "t");
+        assertArrayEquals(new int[] { 0, 2 }, lp.referencedColumns(scan));
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(cf.getId(), 1));
+        tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows)
+            if (row.get(2) == 3)
+                expected.add(new ArrayList<Integer>(Arrays.asList(row.get(0))));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        lp.addProjectField("null.*", null);
+        assertArrayEquals(new int[] { 0, 1, 2 }, lp.referencedColumns(scan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
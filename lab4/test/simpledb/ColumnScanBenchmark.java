@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmark comparing a scan of a wide table stored as a HeapFile with
+ * a scan of the same table stored as a ColumnFile, when the query needs one,
+ * two or all of its columns. Each scan sums its first column and starts from
+ * an empty buffer pool, so every page it needs is read from the file (or the
+ * OS page cache).
+ * <p>
+ * Run with: java -cp bin simpledb.ColumnScanBenchmark [rows]
+ */
+public class ColumnScanBenchmark {
+    private static final int COLUMNS = 16;
+    private static final int POOL_PAGES = 8192;
+    private static final int LOAD_BATCH = 50000;
+    private static final int RUNS = 5;
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("colbench", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static long scan(DbIterator it) throws Exception {
+        long sum = 0;
+        it.open();
+        while (it.hasNext())
+            sum += ((IntField) it.next().getField(0)).getValue();
+        it.close();
+        return sum;
+    }
+
+    private static void time(String name, int tableid, int[] columns) throws Exception {
+        long best = Long.MAX_VALUE;
+        long sum = 0;
+        for (int run = 0; run < RUNS; run++) {
+            Database.resetBufferPool(POOL_PAGES);
+            TransactionId tid = new TransactionId();
+            DbIterator it = columns == null
+                    ? new SeqScan(tid, tableid, "t")
+                    : new ColumnScan(tid, tableid, "t", columns);
+            long start = System.nanoTime();
+            sum = scan(it);
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        System.out.printf("%-28s %8.1f ms  (sum %d)%n", name, best / 1e6, sum);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        TupleDesc td = Utility.getTupleDesc(COLUMNS, "c");
+        Random rand = new Random(42);
+        List<List<Integer>> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> row = new ArrayList<>(COLUMNS);
+            for (int c = 0; c < COLUMNS; c++)
+                row.add(rand.nextInt(1000));
+            data.add(row);
+        }
+
+        File heapFile = tempFile(".dat");
+        BulkLoader loader = new BulkLoader(Utility.getTypes(COLUMNS), BufferPool.PAGE_SIZE);
+        loader.load(data, heapFile);
+        HeapFile hf = new HeapFile(heapFile, td);
+        Database.getCatalog().addTable(hf, "heap");
+
+        File columnFile = tempFile(".dat");
+        ColumnFile cf = new ColumnFile(columnFile, td);
+        for (int c = 0; c < COLUMNS; c++)
+            cf.getFile(c).deleteOnExit();
+        Database.getCatalog().addTable(cf, "column");
+        Database.resetBufferPool(POOL_PAGES);
+        for (int from = 0; from < rows; from += LOAD_BATCH) {
+            List<Tuple> batch = new ArrayList<>();
+            for (List<Integer> row : data.subList(from, Math.min(from + LOAD_BATCH, rows))) {
+                Tuple t = new Tuple(td);
+                for (int c = 0; c < COLUMNS; c++)
+                    t.setField(c, new IntField(row.get(c)));
+                batch.add(t);
+            }
+            TransactionId tid = new TransactionId();
+            cf.addTuples(tid, batch.iterator());
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        System.out.printf("%d rows x %d int columns: heap %d pages, columnar %d pages%n",
+                rows, COLUMNS, hf.numPages(), cf.numPages());
+        int[] all = new int[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++)
+            all[c] = c;
+        time("heap, any columns", hf.getId(), null);
+        time("columnar, 1 column", cf.getId(), new int[] { 0 });
+        time("columnar, 2 columns", cf.getId(), new int[] { 0, COLUMNS - 1 });
+        time("columnar, all columns", cf.getId(), all);
+    }
+}
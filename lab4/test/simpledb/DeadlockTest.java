@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +214,44 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * A request that waits a long time without a deadlock is not aborted.
+   */
+  @Test public void testLongWaitNotAborted() throws Exception {
+    LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+
+    Thread.sleep(5 * POLL_INTERVAL);
+    assertTrue(lg1Write.acquired());
+    assertFalse(lg2Read.acquired());
+    assertNull(lg2Read.getError());
+
+    bp.transactionComplete(tid1);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2Read.acquired());
+    assertEquals(0, Database.getLockManager().getDeadlockCount());
+  }
+
+  /**
+   * A deadlock is broken at once by aborting the youngest transaction on
+   * the cycle, and is counted.
+   */
+  @Test public void testYoungestIsVictim() throws Exception {
+    LockGrabber lg1Write0 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write1 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    assertTrue(lg1Write1.acquired());
+    assertNull(lg1Write1.getError());
+    assertNotNull(lg2Write0.getError());
+    assertEquals(1, Database.getLockManager().getDeadlockCount());
+  }
+
   /**
    * JUnit suite target
    */
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.UncheckedIOException;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,46 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.getSlot(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1200,
+                null, null);
+        assertEquals(3, threePageFile.numPages());
+
+        List<Page> pages = threePageFile.readPages(1, 5);
+        assertEquals(2, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            PageId pid = new HeapPageId(threePageFile.getId(), i + 1);
+            assertEquals(pid, pages.get(i).getId());
+            assertArrayEquals(threePageFile.readPage(pid).getPageData(),
+                    pages.get(i).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped file, including
+     * a page appended after the file was first mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(),
+                mapped.readPage(pid).getPageData());
+
+        // appending a page grows the file past the current mapping
+        HeapPageId appended = new HeapPageId(hf.getId(), 1);
+        assertEquals(504, ((HeapPage) mapped.readPage(appended)).getNumEmptySlots());
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        page.deleteTuple(page.iterator().next());
+        mapped.writePage(new HeapPage(appended, page.getPageData()));
+
+        assertEquals(485, ((HeapPage) mapped.readPage(appended)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +162,26 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Interrupting a thread reading the file closes the shared channel; the
+     * interrupted read fails, but later reads reopen the file.
+     */
+    @Test
+    public void readAfterInterrupt() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Thread.currentThread().interrupt();
+        try {
+            hf.readPage(pid);
+            fail("expected exception");
+        } catch (UncheckedIOException e) {
+        } finally {
+            Thread.interrupted();
+        }
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(20, 504 - page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
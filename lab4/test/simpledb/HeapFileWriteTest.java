@@ -1,5 +1,10 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -7,6 +12,8 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
+import simpledb.systemtest.SystemTestUtil;
+
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
 
@@ -43,6 +50,227 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Deleting from a full page makes HeapFile.addTuple() reuse the space
+     * rather than append a page.
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        for (int i = 0; i < 504 * 2; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        empty.deleteTuple(tid, first);
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.addTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuples(): each page is filled before the
+     * next, and each modified page is reported once
+     */
+    @Test public void addTuples() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+
+        ArrayList<Page> modified = empty.addTuples(tid, tuples.iterator());
+        assertEquals(3, empty.numPages());
+        assertEquals(3, modified.size());
+        for (int i = 0; i < tuples.size(); i++)
+            assertEquals(i / 504, tuples.get(i).getRecordId().getPageId().pageno());
+        assertEquals(0, ((HeapPage) modified.get(1)).getNumEmptySlots());
+        assertEquals(503, ((HeapPage) modified.get(2)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.addTuples() on a table with a variable-length
+     * field: pages fill up by bytes rather than by slots
+     */
+    @Test public void addVariableLengthTuples() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARSTRING_TYPE });
+        File f = File.createTempFile("varstring", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(i % 100 == 0 ? "a much longer string than the rest" : "x" + i, Type.STRING_LEN));
+            tuples.add(t);
+        }
+        hf.addTuples(tid, tuples.iterator());
+        assertTrue(hf.numPages() <= 5);
+
+        hf.deleteTuple(tid, tuples.get(0));
+        Tuple t = tuples.get(1);
+        hf.deleteTuple(tid, t);
+        hf.addTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+    }
+
+    /**
+     * A compressed HeapFile stores repetitive tuples in a fraction of the
+     * pages, and reads them back after they go to disk.
+     */
+    @Test public void addCompressedTuples() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 20; ++i)
+            tuples.add(Utility.getHeapTuple(new int[] { i / 100, i % 3 }));
+        hf.addTuples(tid, tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(hf.numPages() <= 4);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (Tuple expected : tuples)
+            assertTrue(TestUtil.compareTuples(expected, it.next()));
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * HeapFile.vacuum() moves the tuples of sparse pages at the end of the
+     * file into earlier free space and truncates the file, but leaves a dense
+     * file alone.
+     */
+    @Test public void vacuum() throws Exception {
+        for (int i = 0; i < 504 * 4; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, empty.vacuum());
+        assertEquals(4, empty.numPages());
+
+        // keep every tenth tuple
+        tid = new TransactionId();
+        List<Integer> kept = new ArrayList<Integer>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int value = ((IntField) t.getField(0)).getValue();
+            if (value % 10 == 0)
+                kept.add(value);
+            else
+                empty.deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(3, empty.vacuum());
+        assertEquals(1, empty.numPages());
+        assertEquals(BufferPool.PAGE_SIZE, empty.getFile().length());
+
+        tid = new TransactionId();
+        List<Integer> found = new ArrayList<Integer>();
+        it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(found);
+        assertEquals(kept, found);
+
+        // the file grows again from its new end
+        for (int i = 0; i < 504; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages() with a gap between two runs
+     */
+    @Test public void writePages() throws Exception {
+        for (int i = 0; i < 504 * 4; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, empty.numPages());
+
+        List<Page> pages = new ArrayList<Page>();
+        for (int pageno : new int[] { 0, 1, 3 }) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pageno));
+            page.deleteTuple(page.iterator().next());
+            pages.add(page);
+        }
+        empty.writePages(pages);
+
+        for (int pageno = 0; pageno < 4; pageno++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pageno));
+            assertEquals(pageno == 2 ? 0 : 1, page.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.save() and FreeSpaceMap.load()
+     */
+    @Test public void freeSpaceMapRoundTrip() throws Exception {
+        FreeSpaceMap map = new FreeSpaceMap();
+        map.setFree(0, false);
+        map.setFree(1, false);
+        map.setFree(70, false);
+        map.setFree(1, true);
+        assertEquals(1, map.nextFreePage(0, 100));
+        assertEquals(71, map.nextFreePage(70, 100));
+        assertEquals(-1, map.nextFreePage(70, 71));
+
+        File f = File.createTempFile("fsm", ".fsm");
+        f.deleteOnExit();
+        map.save(f);
+        FreeSpaceMap loaded = FreeSpaceMap.load(f, empty.getFile());
+        assertEquals(1, loaded.nextFreePage(0, 100));
+        assertEquals(-1, loaded.nextFreePage(70, 71));
+    }
+
+    /**
+     * BufferPool.flushAllPages() saves the free space map, and a HeapFile
+     * reopened on the same file starts from the saved map.
+     */
+    @Test public void freeSpaceMapSavedOnFlush() throws Exception {
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.getFreeSpaceMap().nextFreePage(0, 3));
+    }
+
+    /**
+     * Aborting an insert that filled a page marks the page free again.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        for (int i = 0; i < 503; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        empty.addTuple(tid, Utility.getHeapTuple(503, 2));
+        assertEquals(-1, empty.getFreeSpaceMap().nextFreePage(0, 1));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, empty.getFreeSpaceMap().nextFreePage(0, 1));
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(503, 2);
+        empty.addTuple(tid, t);
+        assertEquals(1, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+    }
+
     /**
      * JUnit suite target
      */
@@ -12,6 +12,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -99,6 +100,24 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Scanning a page again returns the tuples built by the first scan,
+     * except for a slot whose tuple was deleted since.
+     */
+    @Test public void iteratorReusesTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Tuple> first = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            first.add(it.next());
+
+        page.deleteTuple(first.get(0));
+        it = page.iterator();
+        for (int i = 1; i < first.size(); i++)
+            assertSame(first.get(i), it.next());
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
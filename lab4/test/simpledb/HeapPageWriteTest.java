@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +130,192 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Slots freed across header word boundaries are found and refilled
+     * lowest first, and the iterator skips them.
+     */
+    @Test public void refillSlotsAcrossWords() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        Tuple[] added = new Tuple[slots];
+        for (int i = 0; i < slots; i++) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.addTuple(added[i]);
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        int[] freed = { 500, 64, 63, 0 };
+        for (int slot : freed)
+            page.deleteTuple(added[slot]);
+        assertEquals(freed.length, page.getNumEmptySlots());
+        assertFalse(page.getSlot(63));
+        assertTrue(page.getSlot(62));
+
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            int slot = it.next().getRecordId().tupleno();
+            assertTrue(slot != 0 && slot != 63 && slot != 64 && slot != 500);
+            count++;
+        }
+        assertEquals(slots - freed.length, count);
+
+        int[] refilled = { 0, 63, 64, 500 };
+        for (int slot : refilled) {
+            Tuple t = Utility.getHeapTuple(slot, 2);
+            page.addTuple(t);
+            assertEquals(slot, t.getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() and HeapPage.writePageData() after
+     * a mix of deletes and inserts.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple second = it.next();
+        page.deleteTuple(second);
+        Tuple addition = Utility.getHeapTuple(new int[] { 6, 830 });
+        page.addTuple(addition);
+        page.addTuple(Utility.getHeapTuple(new int[] { 7, 840 }));
+
+        byte[] data = page.getPageData();
+        assertEquals(BufferPool.PAGE_SIZE, data.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        page.writePageData(direct);
+        assertEquals(BufferPool.PAGE_SIZE, direct.position());
+        direct.flip();
+        byte[] directData = new byte[BufferPool.PAGE_SIZE];
+        direct.get(directData);
+        assertArrayEquals(data, directData);
+
+        // the serialized page decodes to the same tuples
+        HeapPage copy = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> expected = page.iterator();
+        Iterator<Tuple> actual = copy.iterator();
+        while (expected.hasNext())
+            assertTrue(TestUtil.compareTuples(expected.next(), actual.next()));
+        assertFalse(actual.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and HeapPage.setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.markDirty(true, new TransactionId());
+        page.deleteTuple(page.iterator().next());
+        page.addTuple(Utility.getHeapTuple(new int[] { 6, 830 }));
+        page.addTuple(Utility.getHeapTuple(new int[] { 7, 840 }));
+
+        // changes are not visible in the before-image until it is reset
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        byte[] data = page.getPageData();
+        page.setBeforeImage();
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+        assertArrayEquals(data, page.getPageData());
+        assertEquals(free - 1, page.getNumEmptySlots());
+    }
+
+    /**
+     * Tables with a variable-length field use a slotted page, which holds
+     * many more short strings than fixed-width slots would, gives the space
+     * of deleted tuples back, and survives serialization.
+     */
+    @Test public void slottedPage() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARSTRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId slottedPid = new HeapPageId(-2, 0);
+        HeapPage page = new HeapPage(slottedPid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+
+        LinkedList<Tuple> added = new LinkedList<Tuple>();
+        for (int i = 0; ; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("code" + (i % 10), Type.STRING_LEN));
+            if (!page.hasRoomFor(t))
+                break;
+            page.addTuple(t);
+            added.add(t);
+        }
+        int fixedSlots = BufferPool.PAGE_SIZE * 8 / ((Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen()) * 8 + 1);
+        assertTrue(added.size() > 5 * fixedSlots);
+
+        // deleting a long-ish tuple makes room for a short one
+        page.deleteTuple(added.removeFirst());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("", Type.STRING_LEN));
+        assertTrue(page.hasRoomFor(t));
+        page.addTuple(t);
+        added.addFirst(t);
+
+        HeapPage copy = new HeapPage(slottedPid, page.getPageData());
+        Iterator<Tuple> actual = copy.iterator();
+        for (Tuple expected : added)
+            assertTrue(TestUtil.compareTuples(expected, actual.next()));
+        assertFalse(actual.hasNext());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+
+        // a serialized page is compacted, so it decodes to the same bytes
+        assertArrayEquals(copy.getPageData(), page.getPageData());
+    }
+
+    /**
+     * A page of a compressed HeapFile holds many more repetitive tuples than
+     * fixed slots would, reuses the slots of deleted tuples, and survives
+     * serialization.
+     */
+    @Test public void compressedPage() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPageId compressedPid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = new HeapPage(compressedPid, HeapPage.createEmptyPageData());
+
+        LinkedList<Tuple> added = new LinkedList<Tuple>();
+        for (int i = 0; ; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i / 50, 1000 + i % 7 });
+            if (!page.hasRoomFor(t))
+                break;
+            page.addTuple(t);
+            added.add(t);
+        }
+        assertTrue(added.size() > 4 * 504);
+
+        // a freed slot takes a tuple that compresses as well as the old one
+        Tuple removed = added.remove(10);
+        page.deleteTuple(removed);
+        Tuple t = Utility.getHeapTuple(new int[] { 0, 1003 });
+        assertTrue(page.hasRoomFor(t));
+        page.addTuple(t);
+        assertEquals(null, removed.getRecordId());
+        assertEquals(10, t.getRecordId().tupleno());
+        added.add(10, t);
+
+        byte[] data = page.getPageData();
+        HeapPage copy = new HeapPage(compressedPid, data);
+        Iterator<Tuple> actual = copy.iterator();
+        for (Tuple expected : added) {
+            Tuple next = actual.next();
+            assertTrue(TestUtil.compareTuples(expected, next));
+            assertEquals(expected.getRecordId(), next.getRecordId());
+        }
+        assertFalse(actual.hasNext());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertArrayEquals(data, copy.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
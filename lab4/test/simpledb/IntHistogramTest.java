@@ -174,4 +174,25 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+	
+	/**
+	 * Merging histograms over different ranges keeps every value and puts
+	 * values in roughly the right buckets.
+	 */
+	@Test public void addHistogramTest() {
+		IntHistogram low = new IntHistogram(10, 1, 50);
+		IntHistogram high = new IntHistogram(10, 51, 100);
+		for (int c = 1; c <= 50; c++) {
+			low.addValue(c);
+			high.addValue(c + 50);
+		}
+		
+		IntHistogram h = new IntHistogram(10, 1, 100);
+		h.addHistogram(low);
+		h.addHistogram(high);
+		
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 1), 0.001);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN, 50), 0.05);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 25), 0.05);
+	}
 }
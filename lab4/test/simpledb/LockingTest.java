@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +187,94 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Locks leave the lock table once no transaction owns or awaits them.
+   */
+  @Test public void lockTableReclaimed() throws Exception {
+    LockManager lm = Database.getLockManager();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    // the two pages, and the table their intention locks are on
+    assertEquals(3, lm.getLockTableSize());
+
+    bp.transactionComplete(tid1);
+    assertEquals(2, lm.getLockTableSize());
+    bp.releasePage(tid2, p0);
+    assertEquals(1, lm.getLockTableSize());
+    bp.transactionComplete(tid2);
+    assertEquals(0, lm.getLockTableSize());
+
+    // a lock taken from the pool works like a new one
+    metaLockTester(tid1, p1, Permissions.READ_WRITE,
+        tid2, p1, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * A scan by a read-only plan share locks its table instead of each page:
+   * other transactions can still read the pages, but not write them.
+   */
+  @Test public void scanLocksTable() throws Exception {
+    DbFileIterator it = empty.iterator(tid1, true);
+    it.open();
+    while (it.hasNext())
+      it.next();
+    it.close();
+    assertEquals(1, Database.getLockManager().getLockTableSize());
+    assertTrue(bp.holdsLock(tid1, p2));
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(tid2, p2, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Page locks past the escalation threshold become one table lock.
+   */
+  @Test public void lockEscalation() throws Exception {
+    LockManager lm = Database.getLockManager();
+    lm.setEscalationThreshold(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(0, lm.getEscalationCount());
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(1, lm.getEscalationCount());
+    assertEquals(1, lm.getLockTableSize());
+
+    grabLock(tid2, p0, Permissions.READ_ONLY, true);
+    grabLock(tid2, p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Escalation gives up, keeping the page locks, when another transaction
+   * holds a conflicting lock on the table.
+   */
+  @Test public void lockEscalationConflict() throws Exception {
+    LockManager lm = Database.getLockManager();
+    lm.setEscalationThreshold(1);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(0, lm.getEscalationCount());
+    assertEquals(1, lm.getFailedEscalationCount());
+    assertEquals(4, lm.getLockTableSize());
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+  }
+
+  /**
+   * Other scans lock the pages they read, under an intention lock on the
+   * table, so the table stays open to writers of other pages.
+   */
+  @Test public void scanLocksPages() throws Exception {
+    DbFileIterator it = empty.iterator(tid1);
+    it.open();
+    it.next();
+    assertEquals(2, Database.getLockManager().getLockTableSize());
+    grabLock(tid2, p1, Permissions.READ_WRITE, true);
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+    it.close();
+  }
+
   /**
    * JUnit suite target
    */
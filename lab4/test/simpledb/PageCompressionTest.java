@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCompressionTest {
+
+    private static Field[] ints(int[] values) {
+        Field[] fields = new Field[values.length];
+        for (int i = 0; i < values.length; i++)
+            fields[i] = new IntField(values[i]);
+        return fields;
+    }
+
+    /**
+     * Encode values, check that the expected encoding was picked and took the
+     * size the statistics predicted, and decode them again.
+     */
+    private static void roundTrip(Type type, Field[] values, int expectedEncoding) {
+        PageCompression.ColumnStats stats = new PageCompression.ColumnStats(type);
+        for (Field f : values)
+            stats.add(f);
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE * 4);
+        PageCompression.encode(type, values, buf);
+        assertEquals(stats.size(), buf.position());
+        assertEquals(expectedEncoding, buf.get(0));
+
+        buf.flip();
+        Field[] decoded = PageCompression.decode(type, buf, values.length);
+        assertEquals(stats.size(), buf.position());
+        assertArrayEquals(values, decoded);
+    }
+
+    /**
+     * Each encoding is picked for the kind of column it suits, and every
+     * encoding decodes to what was encoded.
+     */
+    @Test public void encodingsRoundTrip() {
+        Random rand = new Random(7);
+        int n = 1000;
+        int[] runs = new int[n], narrow = new int[n], wide = new int[n];
+        Field[] codes = new Field[n];
+        for (int i = 0; i < n; i++) {
+            runs[i] = i / 100;
+            narrow[i] = 1000000 + rand.nextInt(50);
+            wide[i] = rand.nextInt();
+            codes[i] = new StringField("code-" + rand.nextInt(5), Type.STRING_LEN);
+        }
+
+        roundTrip(Type.INT_TYPE, ints(runs), PageCompression.RLE);
+        roundTrip(Type.INT_TYPE, ints(narrow), PageCompression.FOR);
+        roundTrip(Type.INT_TYPE, ints(wide), PageCompression.PLAIN);
+        roundTrip(Type.STRING_TYPE, codes, PageCompression.DICT);
+        roundTrip(Type.INT_TYPE, ints(new int[] { -5, Integer.MAX_VALUE, Integer.MIN_VALUE }), PageCompression.PLAIN);
+    }
+
+    /**
+     * The size predicted for one more value is the size once it is added.
+     */
+    @Test public void sizeWith() {
+        Random rand = new Random(11);
+        PageCompression.ColumnStats stats = new PageCompression.ColumnStats(Type.INT_TYPE);
+        for (int i = 0; i < 2000; i++) {
+            Field f = new IntField(i < 1000 ? rand.nextInt(4) : rand.nextInt(1 << (i / 100)));
+            int predicted = stats.sizeWith(f);
+            stats.add(f);
+            assertEquals(predicted, stats.size());
+        }
+    }
+
+    /**
+     * Replacing a run of values updates the statistics to those of the new
+     * sequence.
+     */
+    @Test public void replace() {
+        Random rand = new Random(13);
+        Field[] values = new Field[500];
+        for (int i = 0; i < values.length; i++)
+            values[i] = new IntField(rand.nextInt(8));
+        PageCompression.ColumnStats stats = new PageCompression.ColumnStats(Type.INT_TYPE);
+        for (Field f : values)
+            stats.add(f);
+
+        for (int round = 0; round < 1000; round++) {
+            int start = rand.nextInt(values.length);
+            int end = start + 1;
+            while (end < values.length && values[end].equals(values[start]) && rand.nextBoolean())
+                end++;
+            Field f = new IntField(round < 500 ? rand.nextInt(8) : rand.nextInt(1 << (round / 50)));
+            stats.replace(values[start], f, end - start,
+                    start == 0 ? null : values[start - 1], end == values.length ? null : values[end]);
+            for (int i = start; i < end; i++)
+                values[i] = f;
+
+            PageCompression.ColumnStats expected = new PageCompression.ColumnStats(Type.INT_TYPE);
+            for (Field v : values)
+                expected.add(v);
+            assertEquals(expected.size(), stats.size());
+            assertEquals(expected.best(), stats.best());
+            assertEquals(expected.sizeWith(f), stats.sizeWith(f));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressionTest.class);
+    }
+}
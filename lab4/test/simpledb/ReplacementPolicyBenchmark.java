@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Micro-benchmark comparing buffer replacement policies at several pool
+ * sizes. The access trace sends 80% of requests to 20% of the pages, over a
+ * universe four times larger than the pool, and every miss evicts a victim.
+ * A second round interleaves those requests with a sequential scan over a
+ * table twice the size of the pool, and reports the hit ratio of the point
+ * requests only.
+ * <p>
+ * Run with: java -cp bin simpledb.ReplacementPolicyBenchmark
+ */
+public class ReplacementPolicyBenchmark {
+    private static final int[] POOL_SIZES = { 64, 512, 4096, 16384 };
+    private static final int ACCESSES = 2000000;
+
+    interface PolicyFactory {
+        ReplacementPolicy create(int capacity);
+    }
+
+    /**
+     * The replacement strategy BufferPool used before policies were pluggable:
+     * a wall-clock timestamp per page and a full scan for the oldest one.
+     */
+    static class TimestampScanPolicy implements ReplacementPolicy {
+        private Map<PageId, Long> timestamps = new HashMap<>();
+
+        public void admit(PageId pid) {
+            timestamps.put(pid, System.currentTimeMillis());
+        }
+
+        public void access(PageId pid) {
+            timestamps.put(pid, System.currentTimeMillis());
+        }
+
+        public void remove(PageId pid) {
+            timestamps.remove(pid);
+        }
+
+        public PageId evict(Predicate<PageId> evictable) {
+            PageId victim = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<PageId, Long> e : timestamps.entrySet()) {
+                if (e.getValue() < oldest && evictable.test(e.getKey())) {
+                    oldest = e.getValue();
+                    victim = e.getKey();
+                }
+            }
+            timestamps.remove(victim);
+            return victim;
+        }
+    }
+
+    private static void run(String name, PolicyFactory factory, int poolSize, boolean withScan) {
+        int universe = poolSize * 4;
+        int hotPages = universe / 5;
+        HeapPageId[] pids = new HeapPageId[universe];
+        for (int i = 0; i < universe; i++)
+            pids[i] = new HeapPageId(1, i);
+
+        Random rand = new Random(42);
+        int[] trace = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++)
+            trace[i] = rand.nextInt(10) < 8 ? rand.nextInt(hotPages) : hotPages + rand.nextInt(universe - hotPages);
+
+        HeapPageId[] scanPids = new HeapPageId[poolSize * 2];
+        for (int i = 0; i < scanPids.length; i++)
+            scanPids[i] = new HeapPageId(2, i);
+
+        ReplacementPolicy policy = factory.create(poolSize);
+        Set<PageId> resident = new HashSet<>();
+        long hits = 0;
+        int scanPos = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ACCESSES; i++) {
+            if (withScan)
+                access(policy, resident, poolSize, scanPids[scanPos++ % scanPids.length], true);
+            if (access(policy, resident, poolSize, pids[trace[i]], false))
+                hits++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-10s pool=%6d %-9s %8.1f ns/access  hit ratio %.3f%n",
+                name, poolSize, withScan ? "+scan" : "", (double) elapsed / ACCESSES, (double) hits / ACCESSES);
+    }
+
+    private static boolean access(ReplacementPolicy policy, Set<PageId> resident, int poolSize,
+            HeapPageId pid, boolean scan) {
+        if (resident.contains(pid)) {
+            policy.access(pid, scan);
+            return true;
+        }
+        if (resident.size() >= poolSize)
+            resident.remove(policy.evict(p -> true));
+        policy.admit(pid, scan);
+        resident.add(pid);
+        return false;
+    }
+
+    public static void main(String[] args) {
+        for (boolean withScan : new boolean[] { false, true }) {
+            for (int poolSize : POOL_SIZES) {
+                run("clock", ClockPolicy::new, poolSize, withScan);
+                run("2q", TwoQueuePolicy::new, poolSize, withScan);
+                run("lru", c -> new LruPolicy(), poolSize, withScan);
+                // the old full-scan strategy is too slow to run on the largest pools
+                if (poolSize <= 4096)
+                    run("timestamp", c -> new TimestampScanPolicy(), poolSize, withScan);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pageno) {
+        return new HeapPageId(1, pageno);
+    }
+
+    /**
+     * Unit test for LruPolicy.evict(): the least recently used page goes first.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = new LruPolicy();
+        policy.admit(pid(0));
+        policy.admit(pid(1));
+        policy.admit(pid(2));
+        policy.access(pid(0));
+
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+        assertNull(policy.evict(p -> true));
+    }
+
+    /**
+     * LruPolicy keeps pinned pages out of the candidates it looks at, and
+     * treats the last unpin as a use.
+     */
+    @Test public void lruSkipsPinnedPages() {
+        ReplacementPolicy policy = new LruPolicy();
+        policy.admit(pid(0));
+        policy.admit(pid(1));
+        policy.admit(pid(2));
+        policy.pin(pid(0));
+        policy.pin(pid(0));
+        policy.unpin(pid(0));
+
+        final int[] tested = new int[1];
+        assertEquals(pid(1), policy.evict(p -> { tested[0]++; return true; }));
+        assertEquals(1, tested[0]);
+        policy.admit(pid(0));
+        policy.unpin(pid(0));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+        assertNull(policy.evict(p -> true));
+    }
+
+    /**
+     * Unit test for ClockPolicy.evict(): referenced pages get a second chance.
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy(3);
+        policy.admit(pid(0));
+        policy.admit(pid(1));
+        policy.admit(pid(2));
+
+        // first sweep clears every reference bit, then page 0 is chosen
+        assertEquals(pid(0), policy.evict(p -> true));
+
+        policy.admit(pid(3));
+        policy.access(pid(1));
+        assertEquals(pid(2), policy.evict(p -> true));
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a page only enters the main queue when it
+     * is readmitted soon after being evicted, and then outlives new pages.
+     */
+    @Test public void twoQueuePromotesReadmittedPages() {
+        ReplacementPolicy policy = new TwoQueuePolicy(8);
+        policy.admit(pid(0));
+        policy.admit(pid(1));
+        assertEquals(pid(0), policy.evict(p -> true));
+
+        // page 0 comes back while its ghost is remembered
+        policy.admit(pid(0));
+        for (int i = 2; i < 6; i++)
+            policy.admit(pid(i));
+
+        // A1in (a quarter of the pool) is trimmed first, then Am
+        assertEquals(pid(1), policy.evict(p -> true));
+        assertEquals(pid(2), policy.evict(p -> true));
+        assertEquals(pid(3), policy.evict(p -> true));
+        assertEquals(pid(0), policy.evict(p -> true));
+    }
+
+    /**
+     * A page the workload keeps using survives repeated scans: it is evicted
+     * at most once (by 2Q, before it has proven itself), while the scanned
+     * pages take every other eviction.
+     */
+    @Test public void scansDoNotFlushWorkingSet() {
+        ReplacementPolicy[] policies = { new ClockPolicy(4), new TwoQueuePolicy(4) };
+        for (ReplacementPolicy policy : policies) {
+            policy.admit(pid(0));
+            int misses = 0;
+            for (int pass = 0; pass < 3; pass++) {
+                for (int i = 10; i < 20; i++) {
+                    policy.admit(pid(i), true);
+                    policy.access(pid(i), true);
+                    PageId victim = policy.evict(p -> true);
+                    if (victim.equals(pid(0))) {
+                        misses++;
+                        policy.admit(pid(0));
+                    } else {
+                        policy.access(pid(0));
+                    }
+                }
+            }
+            assertTrue(misses <= 1);
+        }
+    }
+
+    /**
+     * Pages rejected by the predicate must stay resident and be skipped.
+     */
+    @Test public void victimsRespectPredicate() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new ClockPolicy(4), new TwoQueuePolicy(4) };
+        for (ReplacementPolicy policy : policies) {
+            policy.admit(pid(0));
+            policy.admit(pid(1));
+
+            assertEquals(pid(1), policy.evict(p -> !p.equals(pid(0))));
+            assertNull(policy.evict(p -> !p.equals(pid(0))));
+            assertEquals(pid(0), policy.evict(p -> true));
+        }
+    }
+
+    /**
+     * Removed pages are never returned as victims.
+     */
+    @Test public void removeForgetsPage() {
+        ReplacementPolicy[] policies = { new LruPolicy(), new ClockPolicy(2), new TwoQueuePolicy(2) };
+        for (ReplacementPolicy policy : policies) {
+            policy.admit(pid(0));
+            policy.admit(pid(1));
+            policy.remove(pid(0));
+
+            assertEquals(pid(1), policy.evict(p -> true));
+            assertNull(policy.evict(p -> true));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -1,5 +1,9 @@
 package simpledb;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.NoSuchElementException;
 
 import org.junit.Test;
@@ -80,6 +84,47 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
     
+    /**
+     * Unit test for TupleDesc.getFieldOffset()
+     */
+    @Test public void getFieldOffset() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.INT_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen(), td.getFieldOffset(2));
+
+        try {
+            td.getFieldOffset(3);
+            Assert.fail("expected exception");
+        } catch (NoSuchElementException e) {
+            // expected to get here
+        }
+    }
+
+    /**
+     * A variable-length field whose stored length is out of range fails to
+     * parse instead of overrunning the buffer.
+     */
+    @Test public void corruptFieldLength() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.VARSTRING_TYPE, Type.INT_TYPE });
+        for (int len : new int[] { -1, Type.STRING_LEN + 1, Integer.MAX_VALUE }) {
+            ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+            buf.putInt(0, len);
+            try {
+                td.getFieldOffset(1, buf, 0);
+                Assert.fail("expected exception");
+            } catch (ParseException e) {
+                // expected to get here
+            }
+            try {
+                Type.VARSTRING_TYPE.parse(new DataInputStream(new ByteArrayInputStream(buf.array())));
+                Assert.fail("expected exception");
+            } catch (ParseException e) {
+                // expected to get here
+            }
+        }
+    }
+
     /**
      * Unit test for TupleDesc.nameToId()
      */
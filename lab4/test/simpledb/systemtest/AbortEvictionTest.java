@@ -38,6 +38,65 @@ public class AbortEvictionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    /** Deletes every row of a table larger than the buffer pool in one
+     * transaction, which only works if dirty pages can be evicted (STEAL).
+     */
+    private static void deleteAllRows(HeapFile f, Transaction t)
+            throws DbException, TransactionAbortedException {
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        assertEquals(512*10, ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+    }
+
+    private static int countRows(HeapFile f)
+            throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t.commit();
+        return count;
+    }
+
+    /** Aborts a transaction whose dirty pages were stolen from the pool and
+     * ensures that the log rolled them back on disk.
+     */
+    @Test public void testStealAbortUndoesEvictedPages()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAllRows(f, t);
+        t.transactionComplete(true);
+
+        Database.resetBufferPool(2);
+        assertEquals(512*10, countRows(f));
+    }
+
+    /** Commits a transaction that changed more pages than the pool holds. */
+    @Test public void testStealCommitsLargeTransaction()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        deleteAllRows(f, t);
+        t.commit();
+
+        Database.resetBufferPool(2);
+        assertEquals(0, countRows(f));
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AbortEvictionTest.class);
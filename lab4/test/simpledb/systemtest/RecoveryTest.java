@@ -0,0 +1,184 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RecoveryTest extends SimpleDbTestBase {
+    /** Commits without forcing pages, loses the buffer pool as in a crash,
+     * and ensures that recovery redoes the commit from the log.
+     */
+    @Test public void testNoForceCommitIsRedone()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setForce(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        // committed pages are still only in memory
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+
+        Database.getLogFile().recover();
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Commits through the buffer pool alone without forcing pages, and
+     * ensures that the commit still reaches the log.
+     */
+    @Test public void testNoForceBufferPoolCommitIsRedone()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setForce(false);
+
+        Transaction t = new Transaction();
+        EvictionTest.insertRow(f, t);
+        Database.getBufferPool().transactionComplete(t.getId(), true);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Aborts a transaction that updated a page whose committed version is
+     * only in memory, and ensures that the abort writes that version back.
+     */
+    @Test public void testNoForceAbortWritesCommittedPage()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setForce(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        t = new Transaction();
+        EvictionTest.insertRow(f, t);
+        Database.getBufferPool().transactionComplete(t.getId(), false);
+
+        // the committed row is on disk without any recovery
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Steals pages of a transaction that never completes, and ensures that
+     * recovery undoes them.
+     */
+    @Test public void testUnfinishedStealIsUndone()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+
+        // crash with the deletes partly on disk
+        Database.resetBufferPool(2);
+        Database.getLogFile().recover();
+
+        t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t.commit();
+        assertEquals(512*10, count);
+    }
+
+    /** Steals pages of a transaction that is still running at a checkpoint,
+     * and ensures that recovery, which starts from the checkpoint, reaches
+     * back far enough to undo them.
+     */
+    @Test public void testStealBeforeCheckpointIsUndone()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getLogFile().logCheckpoint();
+
+        Database.resetBufferPool(2);
+        Database.getLogFile().recover();
+
+        t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t.commit();
+        assertEquals(512*10, count);
+    }
+
+    /** Steals pages of a transaction that then commits in FORCE mode, and
+     * ensures that recovery does not redo the stolen images over a later
+     * committed update of the same pages.
+     */
+    @Test public void testForceCommitAfterStealIsNotOverwritten()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(2).setSteal(true);
+
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), f.getId(), ""));
+        delete.open();
+        delete.next();
+        delete.close();
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(f, t);
+        t.commit();
+
+        Database.resetBufferPool(2);
+        Database.getLogFile().recover();
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(f, t));
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}